@@ -0,0 +1,53 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.service.models.AccountState;
+import pt.ulisboa.tecnico.hdsledger.service.models.Block;
+
+// Applying a decided block to the balances, then checking the supply as every replica does after it
+// Balances are never checked here, they may go negative after many iterations
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountStateBenchmark {
+
+    private static final int NODES = 4;
+    private static final int CLIENTS = 8;
+
+    /** Transactions in the block */
+    @Param({"1", "16", "128"})
+    public int blockSize;
+
+    private AccountState accounts;
+    private Block block;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> nodeIds = Fixtures.ids(1, NODES);
+        List<String> clientIds = Fixtures.ids(20, CLIENTS);
+        Fixtures.registerKeys(nodeIds);
+        Fixtures.registerKeys(clientIds);
+
+        Map<String, Double> initialBalances = new LinkedHashMap<>();
+        clientIds.forEach(id -> initialBalances.put(id, 10D));
+        nodeIds.forEach(id -> initialBalances.put(id, 0D));
+        accounts = new AccountState(initialBalances);
+
+        block = Fixtures.block("1", clientIds, "2", blockSize, 0.1);
+    }
+
+    @Benchmark
+    public long applyBlock() {
+        accounts.applyBlock(block.getAuthorId(), block.getTransactions());
+        return accounts.getSupplyUnits();
+    }
+}
@@ -0,0 +1,86 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ClientMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Link;
+import pt.ulisboa.tecnico.hdsledger.service.models.Block;
+import pt.ulisboa.tecnico.hdsledger.service.services.NodeService;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfigBuilder;
+import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
+
+// Validation of a proposed block by a replica: block signature, then the signatures of
+// every transaction (in parallel), then the nonce and balance of every transaction
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockValidationBenchmark {
+
+    private static final int NODES = 4;
+    private static final int CLIENTS = 8;
+
+    /** Transactions in the block */
+    @Param({"1", "8", "32", "128"})
+    public int blockSize;
+
+    /** Threads verifying the transaction signatures, 1 is the sequential baseline */
+    @Param({"1", "4"})
+    public int validationThreads;
+
+    /** Whether signatures may hit the cache of verified signatures */
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private NodeService nodeService;
+    private Block block;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> nodeIds = Fixtures.ids(1, NODES);
+        List<String> clientIds = Fixtures.ids(20, CLIENTS);
+        Fixtures.registerKeys(nodeIds);
+        Fixtures.registerKeys(clientIds);
+
+        // Ports are left to the system and the block log goes to a temporary folder
+        String storage = Files.createTempDirectory("hdsledger-benchmark").toString().replace("\\", "/");
+        ProcessConfig[] nodeConfigs = configs(nodeIds, storage, validationThreads);
+        ProcessConfig[] clientConfigs = configs(clientIds, storage, validationThreads);
+        ProcessConfig self = nodeConfigs[1];
+
+        Link linkToNodes = new Link(self, 0, nodeConfigs, ConsensusMessage.class);
+        Link linkToClients = new Link(self, 0, clientConfigs, ClientMessage.class);
+        nodeService = new NodeService(linkToNodes, linkToClients, self, nodeConfigs[0], nodeConfigs, clientConfigs);
+
+        block = Fixtures.block("1", clientIds, "1", blockSize, 0.1);
+    }
+
+    private static ProcessConfig[] configs(List<String> ids, String storage, int validationThreads) {
+        return new ProcessConfigBuilder().fromJson(ids.stream()
+                .map(id -> "{\"id\": \"" + id + "\", \"isLeader\": " + id.equals("1")
+                        + ", \"hostname\": \"localhost\", \"port\": 0, \"clientPort\": 0"
+                        + ", \"storageDirectory\": \"" + storage + "\""
+                        + ", \"validationThreads\": " + validationThreads + "}")
+                .collect(Collectors.joining(", ", "[", "]")));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (!cached)
+            RSASignature.getVerifiedCache().clear();
+    }
+
+    @Benchmark
+    public boolean verifyBlockValidity() throws Exception {
+        return nodeService.verifyBlockValidity(block, 1);
+    }
+}
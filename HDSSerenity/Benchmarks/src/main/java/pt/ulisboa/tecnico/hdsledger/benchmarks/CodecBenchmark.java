@@ -0,0 +1,73 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
+
+// Cost of turning a PRE-PREPARE (the only consensus message that carries the block) into a datagram
+// payload and back, as done by the Link
+// The Link reads datagrams into direct buffers and peeks at their sender and type before decoding them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public ProcessConfig.Codec codec;
+
+    /** Transactions in the proposed block */
+    @Param({"2", "32"})
+    public int blockSize;
+
+    private MessageCodec messageCodec;
+    private Message message;
+    private byte[] encoded;
+    /** Encoded message in a direct buffer, as read by the Link */
+    private ByteBuffer received;
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.registerKeys(Fixtures.ids(1, 2));
+        Fixtures.registerKeys(Fixtures.ids(20, 2));
+
+        messageCodec = MessageCodec.forFormat(codec);
+        message = Fixtures.prePrepare("1", 7,
+                Fixtures.block("1", Fixtures.ids(20, 1), "21", blockSize, 1));
+        encoded = messageCodec.encode(message);
+        received = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return messageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() {
+        return messageCodec.decode(encoded, ConsensusMessage.class);
+    }
+
+    @Benchmark
+    public Message decodeDirect() {
+        return messageCodec.decode(received.duplicate(), ConsensusMessage.class);
+    }
+
+    @Benchmark
+    public Message peek() {
+        return messageCodec.peek(received);
+    }
+
+    @Benchmark
+    public Message roundTrip() {
+        return messageCodec.decode(messageCodec.encode(message), ConsensusMessage.class);
+    }
+}
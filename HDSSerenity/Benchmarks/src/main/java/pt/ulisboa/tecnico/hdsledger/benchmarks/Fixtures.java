@@ -0,0 +1,121 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.PrePrepareMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.PrepareMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.service.models.Block;
+import pt.ulisboa.tecnico.hdsledger.service.models.Transaction;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
+import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
+
+// Data shared by the benchmarks
+// Keys are generated in memory, so the benchmarks don't need the KeyInfrastructure folder
+public class Fixtures {
+
+    private static final Random RANDOM = new Random(42);
+
+    private Fixtures() {}
+
+    /**
+     * Generates a 2048 bit RSA key pair for each process and registers it in the KeyRing
+     *
+     * @param ids processes that need keys
+     */
+    public static void registerKeys(List<String> ids) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            for (String id : ids) {
+                KeyRing.register(id, generator.generateKeyPair());
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param first id of the first process
+     * @param count number of processes
+     * @return List<String> - consecutive process ids
+     */
+    public static List<String> ids(int first, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(Integer.toString(first + i));
+        }
+        return ids;
+    }
+
+    /**
+     * Creates a signed block, the senders are used in turn
+     *
+     * @param authorId node that signs the block
+     * @param senders clients that sign the transactions
+     * @param receiver receiver of every transaction
+     * @param size number of transactions
+     * @param amount amount of each transaction
+     * @return Block - signed block
+     */
+    public static Block block(String authorId, List<String> senders, String receiver, int size, double amount)
+            throws Exception {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String sender = senders.get(i % senders.size());
+            int nonce = RANDOM.nextInt();
+            String signable = sender + receiver + amount + nonce;
+            transactions.add(new Transaction(sender, receiver, amount, nonce, RSASignature.sign(signable, sender)));
+        }
+
+        Block block = new Block(authorId, transactions);
+        block.setSignature(RSASignature.sign(block.getSignable(), authorId));
+        return block;
+    }
+
+    /**
+     * Creates a signed PRE-PREPARE message as sent by the leader
+     *
+     * @param senderId sender of the message
+     * @param messageId id of the message
+     * @param block proposed block
+     * @return ConsensusMessage - signed message
+     */
+    public static ConsensusMessage prePrepare(String senderId, int messageId, Block block) throws Exception {
+        ConsensusMessage message = new ConsensusMessageBuilder(senderId, Message.Type.PRE_PREPARE)
+                .setConsensusInstance(1)
+                .setRound(1)
+                .setMessage(new PrePrepareMessage(block.toJson()).toJson())
+                .build();
+        message.setMessageId(messageId);
+        message.setSignature(RSASignature.sign(message.getSignable(), senderId));
+        return message;
+    }
+
+    /**
+     * Creates a signed PREPARE message as sent by a node
+     *
+     * @param senderId sender of the message
+     * @param messageId id of the message
+     * @param block proposed block
+     * @return ConsensusMessage - signed message
+     */
+    public static ConsensusMessage prepare(String senderId, int messageId, Block block) throws Exception {
+        ConsensusMessage message = new ConsensusMessageBuilder(senderId, Message.Type.PREPARE)
+                .setConsensusInstance(1)
+                .setRound(1)
+                .setReplyTo("1")
+                .setReplyToMessageId(messageId)
+                .setMessage(new PrepareMessage(block.getHash()).toJson())
+                .build();
+        message.setMessageId(messageId);
+        message.setSignature(RSASignature.sign(message.getSignable(), senderId));
+        return message;
+    }
+}
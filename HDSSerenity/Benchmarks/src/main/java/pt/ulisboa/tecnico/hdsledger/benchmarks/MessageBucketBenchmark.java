@@ -0,0 +1,87 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.communication.*;
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.service.models.Block;
+import pt.ulisboa.tecnico.hdsledger.service.models.MessageBucket;
+
+// Quorum checks run on every PREPARE, COMMIT and ROUND_CHANGE received
+// Each bucket holds one message per node for instance 1, round 1 (round 2 for the round changes)
+// Values are counted when a message is added, addPrepareMessage measures that part
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBucketBenchmark {
+
+    /** Number of nodes in the system */
+    @Param({"4", "7", "16", "31"})
+    public int nodes;
+
+    private MessageBucket prepareMessages;
+    private MessageBucket commitMessages;
+    private MessageBucket roundChangeMessages;
+    private ConsensusMessage prepareMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.registerKeys(Fixtures.ids(1, 1));
+        Fixtures.registerKeys(Fixtures.ids(20, 1));
+        Block block = Fixtures.block("1", Fixtures.ids(20, 1), "21", 2, 1);
+        String digest = block.getHash();
+
+        prepareMessages = new MessageBucket(nodes);
+        commitMessages = new MessageBucket(nodes);
+        roundChangeMessages = new MessageBucket(nodes);
+
+        for (String id : Fixtures.ids(1, nodes)) {
+            prepareMessages.addMessage(message(id, Message.Type.PREPARE, 1, new PrepareMessage(digest).toJson()));
+            commitMessages.addMessage(message(id, Message.Type.COMMIT, 1, new CommitMessage(digest).toJson()));
+            roundChangeMessages.addMessage(message(id, Message.Type.ROUND_CHANGE, 2,
+                    new RoundChangeMessage(1, block.toJson()).toJson()));
+        }
+        prepareMessage = message("1", Message.Type.PREPARE, 1, new PrepareMessage(digest).toJson());
+    }
+
+    private static ConsensusMessage message(String senderId, Message.Type type, int round, String value) {
+        return new ConsensusMessageBuilder(senderId, type)
+                .setConsensusInstance(1)
+                .setRound(round)
+                .setMessage(value)
+                .build();
+    }
+
+    @Benchmark
+    public Optional<String> hasValidPrepareQuorum() {
+        return prepareMessages.hasValidPrepareQuorum("1", 1, 1);
+    }
+
+    @Benchmark
+    public Optional<String> addPrepareMessage() {
+        prepareMessages.addMessage(prepareMessage);
+        return prepareMessages.hasValidPrepareQuorum("1", 1, 1);
+    }
+
+    @Benchmark
+    public Optional<String> hasValidCommitQuorum() {
+        return commitMessages.hasValidCommitQuorum(1, 1);
+    }
+
+    @Benchmark
+    public Optional<Integer> hasCorrectRoundChangeInSet() {
+        return roundChangeMessages.hasCorrectRoundChangeInSet(1, 1);
+    }
+
+    @Benchmark
+    public Optional<List<ConsensusMessage>> getCommitMessages() {
+        return commitMessages.getCommitMessages(1, 1);
+    }
+}
@@ -0,0 +1,76 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.service.models.NonceIndex;
+
+// Replay check of a transaction against the committed ones, as the nodes do for every transaction they validate
+// Compares the synchronized list of every committed nonce with the per-sender windows and Bloom filter
+// The checked pair is the next nonce of a sender, never committed, so the list is scanned whole
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonceIndexBenchmark {
+
+    private static final int SENDERS = 8;
+
+    public enum Implementation {
+        LIST,
+        NONCE_INDEX
+    }
+
+    /** Transactions committed so far */
+    @Param({"1000", "100000"})
+    public int committed;
+
+    @Param({"LIST", "NONCE_INDEX"})
+    public Implementation implementation;
+
+    private List<String> senders;
+    private List<Integer> list;
+    private NonceIndex index;
+    private int nextNonce;
+    private int checks = 0;
+
+    @Setup
+    public void setup() {
+        senders = Fixtures.ids(20, SENDERS);
+        list = Collections.synchronizedList(new LinkedList<>());
+        index = new NonceIndex();
+        // The list holds one nonce per transaction, the index numbers the transfers of each sender
+        for (int i = 0; i < committed; i++) {
+            if (implementation == Implementation.LIST)
+                list.add(i);
+            else
+                index.add(senders.get(i % SENDERS), i / SENDERS);
+        }
+        nextNonce = committed / SENDERS + 1;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        String sender = senders.get(checks++ % SENDERS);
+        if (implementation == Implementation.LIST)
+            return list.contains(committed);
+        return index.contains(sender, nextNonce);
+    }
+
+    /**
+     * Check of an old nonce, answered by the Bloom filter
+     */
+    @Benchmark
+    public boolean containsOld() {
+        String sender = senders.get(checks++ % SENDERS);
+        if (implementation == Implementation.LIST)
+            return list.contains(checks % committed);
+        return index.contains(sender, checks % (committed / SENDERS));
+    }
+}
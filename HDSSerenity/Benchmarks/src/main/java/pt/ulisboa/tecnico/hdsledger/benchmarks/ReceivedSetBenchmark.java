@@ -0,0 +1,146 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CollapsingSet;
+import pt.ulisboa.tecnico.hdsledger.utilities.SlidingWindowSet;
+
+// Duplicate detection of the Link, one set per sender holds the ids of the received messages
+// Ids that arrive in order collapse into the floor, reordered ids stay in the set until the gap closes
+// Compares the boxed, synchronized CollapsingSet with the lock-free SlidingWindowSet used by the Link
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivedSetBenchmark {
+
+    private static final int IDS = 4096;
+    /** Ids are shuffled within windows of this size when reordered */
+    private static final int REORDER_WINDOW = 64;
+    /** Every LOSS_INTERVAL-th id is missing from the set used by contains */
+    private static final int LOSS_INTERVAL = 64;
+
+    public enum Order {
+        IN_ORDER,
+        REORDERED
+    }
+
+    public enum Implementation {
+        COLLAPSING_SET,
+        SLIDING_WINDOW
+    }
+
+    /** Set of one of the implementations, so every benchmark goes through the same calls */
+    private interface ReceivedSet {
+        boolean add(int id);
+
+        boolean contains(int id);
+    }
+
+    @Param({"IN_ORDER", "REORDERED"})
+    public Order order;
+
+    @Param({"COLLAPSING_SET", "SLIDING_WINDOW"})
+    public Implementation implementation;
+
+    private final List<Integer> ids = new ArrayList<>();
+    private int[] orderedIds;
+    private ReceivedSet withGaps;
+
+    /** Set shared by the threads of concurrentAdd, replaced every iteration */
+    private ReceivedSet shared;
+    /** Next id added to the shared set */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        for (int id = 0; id < IDS; id++) {
+            ids.add(id);
+        }
+        if (order == Order.REORDERED) {
+            Random random = new Random(42);
+            for (int start = 0; start < IDS; start += REORDER_WINDOW) {
+                Collections.shuffle(ids.subList(start, Math.min(IDS, start + REORDER_WINDOW)), random);
+            }
+        }
+        orderedIds = ids.stream().mapToInt(Integer::intValue).toArray();
+
+        // Messages that were lost keep every later id out of the floor
+        withGaps = newSet();
+        for (int id : orderedIds) {
+            if (id % LOSS_INTERVAL != LOSS_INTERVAL - 1)
+                withGaps.add(id);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupShared() {
+        shared = newSet();
+        nextId.set(0);
+    }
+
+    private ReceivedSet newSet() {
+        if (implementation == Implementation.COLLAPSING_SET) {
+            CollapsingSet set = new CollapsingSet();
+            return new ReceivedSet() {
+                public boolean add(int id) {
+                    return set.add(id);
+                }
+
+                public boolean contains(int id) {
+                    return set.contains(id);
+                }
+            };
+        }
+        SlidingWindowSet set = new SlidingWindowSet();
+        return new ReceivedSet() {
+            public boolean add(int id) {
+                return set.add(id);
+            }
+
+            public boolean contains(int id) {
+                return set.contains(id);
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public Object add() {
+        ReceivedSet set = newSet();
+        for (int id : orderedIds) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public void contains(Blackhole blackhole) {
+        for (int id : orderedIds) {
+            blackhole.consume(withGaps.contains(id));
+        }
+    }
+
+    /**
+     * Verifier threads of the Link adding the ids of one sender at the same time, each followed by the
+     * retransmission check of an id that was already added
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean concurrentAdd() {
+        int id = nextId.getAndIncrement();
+        shared.add(id);
+        return shared.contains(Math.max(0, id - REORDER_WINDOW));
+    }
+}
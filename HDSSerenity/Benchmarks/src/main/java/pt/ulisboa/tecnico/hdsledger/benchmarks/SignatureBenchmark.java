@@ -0,0 +1,70 @@
+package pt.ulisboa.tecnico.hdsledger.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Session;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.BinaryMessageCodec;
+import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
+
+// Cost of signing and verifying a message signable with RSA 2048
+// Without the cache every verification runs RSA, with it only the first one does
+// sealAndOpen is what a datagram between nodes costs instead when they authenticate with a session
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+    /** Whether verifications may hit the cache of verified signatures */
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private String signable;
+    private byte[] signature;
+    /** Encoded message, as sealed by the Link */
+    private byte[] frame;
+    private Session sender;
+    private Session receiver;
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures.registerKeys(Fixtures.ids(1, 1));
+        signable = Fixtures.prepare("1", 3, Fixtures.block("1", Fixtures.ids(1, 1), "2", 2, 1)).getSignable();
+        signature = RSASignature.sign(signable, "1");
+
+        ConsensusMessage message = Fixtures.prepare("1", 3, Fixtures.block("1", Fixtures.ids(1, 1), "2", 2, 1));
+        frame = new BinaryMessageCodec().encode(message);
+        KeyPair senderKeys = Session.generateKeyPair();
+        KeyPair receiverKeys = Session.generateKeyPair();
+        sender = Session.establish(senderKeys, "1", receiverKeys.getPublic().getEncoded(), "2", 0);
+        receiver = Session.establish(receiverKeys, "2", senderKeys.getPublic().getEncoded(), "1", 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (!cached)
+            RSASignature.getVerifiedCache().clear();
+    }
+
+    @Benchmark
+    public byte[] sign() throws Exception {
+        return RSASignature.sign(signable, "1");
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return RSASignature.verifySign(signable, signature, "1");
+    }
+
+    @Benchmark
+    public boolean sealAndOpen() {
+        return receiver.open(ByteBuffer.wrap(sender.seal(frame)));
+    }
+}
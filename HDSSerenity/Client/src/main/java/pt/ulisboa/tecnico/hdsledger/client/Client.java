@@ -1,6 +1,7 @@
 package pt.ulisboa.tecnico.hdsledger.client;
 
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfigBuilder;
 import java.text.MessageFormat;
@@ -17,6 +18,8 @@ public class Client {
     // Hardcoded path to files
     private static String clientsConfigPath = "src/main/resources/";
     private static String nodesConfigPath = "../Service/src/main/resources/";
+    // Amount of each transfer made by the stress command
+    private static final Double STRESS_AMOUNT = 0.01;
 
 
     public static void main(String[] args) {
@@ -40,6 +43,9 @@ public class Client {
                 n.setPort(n.getClientPort());
             }
 
+            // Load every key once, signing and verifying only use the cached ones
+            KeyRing.loadAll(id, nodeConfigs, clientConfigs);
+
             // Create the client library and wait for replies
             final ClientLibrary clientLibrary = new ClientLibrary(clientConfig, nodeConfigs);
             clientLibrary.listen();
@@ -51,6 +57,7 @@ public class Client {
             System.out.println("Client started. \n" +
                     "Type 'transfer <destination> <value>' to make a transfer. \n" +
                     "Type 'balance <account id>' to check the balance. \n" +
+                    "Type 'stress <destination> <count>' to make count transfers of 0.01 at once. \n" +
                     "Type 'quit' to quit.");
 
             while(true){
@@ -98,6 +105,24 @@ public class Client {
                             System.out.println("Invalid value format. Please enter integers for destination.");
                         }
                         break;
+                    case "stress": case "s":
+                        if (splitInput.length != 3) {
+                            System.out.println("Invalid command. Type 'stress <destination> <count>' to make many transfers.");
+                            break;
+                        }
+                        try {
+                            Integer.parseInt(splitInput[1]);
+                            int count = Integer.parseInt(splitInput[2]);
+
+                            // Transfers are sent without waiting for the responses, so many
+                            // consensus instances run at the same time in the nodes
+                            for (int i = 0; i < count; i++) {
+                                clientLibrary.transfer(id, splitInput[1], STRESS_AMOUNT);
+                            }
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid value format. Please enter integers for destination and count.");
+                        }
+                        break;
                     case "quit":
                         scanner.close();
                         System.exit(0);
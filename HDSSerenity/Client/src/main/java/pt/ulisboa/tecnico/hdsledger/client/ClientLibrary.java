@@ -27,6 +27,11 @@ public class ClientLibrary {
     // Received balance responses
     private int balanceResponses = 0;
 
+    // Nonces are numbered from this date (2024-01-01), in seconds, so an int lasts for decades
+    private static final long NONCE_EPOCH_SECONDS = 1_704_067_200L;
+    // Nonce of the last transfer
+    private int lastNonce = Integer.MIN_VALUE;
+
     public ClientLibrary(ProcessConfig clientConfig, ProcessConfig[] nodeConfigs) {
         this.clientConfig = clientConfig;
         this.nodeConfigs = nodeConfigs;
@@ -49,12 +54,20 @@ public class ClientLibrary {
 
         // Create a message and broadcast it to the nodes
         ClientMessage clientMessage = new ClientMessage(clientConfig.getId(), Message.Type.TRANSFER);
-        TransferMessage transferMessage = new TransferMessage(nodeId, destination, amount);
+        TransferMessage transferMessage = new TransferMessage(nodeId, destination, amount, nextNonce());
         clientMessage.setMessage(transferMessage.toJson());
 
         linkToNodes.broadcast(clientMessage);
     }
 
+    // Nodes only remember a window of recent nonces per client, so nonces go up with every transfer
+    // They start from the current time, a restarted client doesn't reuse the nonces of its previous run
+    private synchronized int nextNonce() {
+        int now = (int) (System.currentTimeMillis() / 1000 - NONCE_EPOCH_SECONDS);
+        lastNonce = Math.max(lastNonce + 1, now);
+        return lastNonce;
+    }
+
     // Checks user balance
     public void check_balance(String nodeId){
         // Reset the balance responses
@@ -107,6 +120,12 @@ public class ClientLibrary {
                         clientConfig.getId(), message.getSenderId()));
                 break;
 
+            case FAILED_FULL:
+                System.out.println(MessageFormat.format(
+                        "{0} - Transfer Failed, from node {1}. Too many pending transfers, try again later",
+                        clientConfig.getId(), message.getSenderId()));
+                break;
+
             case SUCCESS:
                 // Adds response to the list, and checks how many it has
                 transferResponses.computeIfAbsent(nonce, key -> new ArrayList<>())
@@ -0,0 +1,25 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.List;
+
+import com.google.gson.Gson;
+
+// Decided blocks of consecutive consensus instances, as stored in the block log of the sender
+// Each one carries the commit quorum that decided it, the receiver trusts the quorum and not the sender
+public class CatchUpReplyMessage {
+
+    // Stored records (decided block and commit quorum), in instance order
+    private List<String> decidedBlocks;
+
+    public CatchUpReplyMessage(List<String> decidedBlocks) {
+        this.decidedBlocks = decidedBlocks;
+    }
+
+    public List<String> getDecidedBlocks() {
+        return decidedBlocks;
+    }
+
+    public String toJson() {
+        return new Gson().toJson(this);
+    }
+}
@@ -0,0 +1,29 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import com.google.gson.Gson;
+
+// Asks a node for the decided blocks of a range of consensus instances, with their commit quorums
+public class CatchUpRequestMessage {
+
+    // First instance of the range
+    private int firstInstance;
+    // Last instance of the range (inclusive)
+    private int lastInstance;
+
+    public CatchUpRequestMessage(int firstInstance, int lastInstance) {
+        this.firstInstance = firstInstance;
+        this.lastInstance = lastInstance;
+    }
+
+    public int getFirstInstance() {
+        return firstInstance;
+    }
+
+    public int getLastInstance() {
+        return lastInstance;
+    }
+
+    public String toJson() {
+        return new Gson().toJson(this);
+    }
+}
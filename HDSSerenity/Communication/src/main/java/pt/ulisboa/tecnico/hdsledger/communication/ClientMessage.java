@@ -61,7 +61,7 @@ public class ClientMessage extends Message {
 
     @Override
     public String getSignable(){
-        return super.getSenderId() + super.getMessageId() + super.getType().toString()
+        return super.getSignable()
                 + getReplyTo() + getReplyToMessageId() + getMessage();
     }
 }
\ No newline at end of file
@@ -4,15 +4,15 @@ import com.google.gson.Gson;
 
 public class CommitMessage {
 
-    // Block
-    private String block;
+    // Digest of the block, the block itself only travels in the PRE-PREPARE
+    private String digest;
 
-    public CommitMessage(String block) {
-        this.block = block;
+    public CommitMessage(String digest) {
+        this.digest = digest;
     }
 
-    public String getBlock() {
-        return block;
+    public String getDigest() {
+        return digest;
     }
 
     public String toJson() {
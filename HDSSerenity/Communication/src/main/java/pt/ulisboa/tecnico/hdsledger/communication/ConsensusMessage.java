@@ -2,9 +2,6 @@ package pt.ulisboa.tecnico.hdsledger.communication;
 
 import com.google.gson.Gson;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class ConsensusMessage extends Message {
 
     // Consensus instance
@@ -15,10 +12,10 @@ public class ConsensusMessage extends Message {
     private String replyTo;
     // Id of the previous message
     private int replyToMessageId;
-    // Message (PREPREPARE, PREPARE, COMMIT, ROUND-CHANGE)
+    // Message (PREPREPARE, PREPARE, COMMIT, ROUND-CHANGE, CATCH-UP)
     private String message;
-    // Justification for PREPREPARE and ROUND-CHANGE messages
-    private List<ConsensusMessage> justification = new ArrayList<>();
+    // Justification for PREPREPARE and ROUND-CHANGE messages, the PREPARE quorum of the prepared round
+    private QuorumCertificate justification;
 
     public ConsensusMessage(String senderId, Type type) {
         super(senderId, type);
@@ -40,6 +37,14 @@ public class ConsensusMessage extends Message {
         return new Gson().fromJson(this.message, RoundChangeMessage.class);
     }
 
+    public CatchUpRequestMessage deserializeCatchUpRequestMessage() {
+        return new Gson().fromJson(this.message, CatchUpRequestMessage.class);
+    }
+
+    public CatchUpReplyMessage deserializeCatchUpReplyMessage() {
+        return new Gson().fromJson(this.message, CatchUpReplyMessage.class);
+    }
+
     public String getMessage() {
         return message;
     }
@@ -76,11 +81,11 @@ public class ConsensusMessage extends Message {
         return replyToMessageId;
     }
 
-    public void setJustification(List<ConsensusMessage> justification) {
+    public void setJustification(QuorumCertificate justification) {
         this.justification = justification;
     }
 
-    public List<ConsensusMessage> getJustification() {
+    public QuorumCertificate getJustification() {
         return justification;
     }
 
@@ -90,7 +95,7 @@ public class ConsensusMessage extends Message {
 
     @Override
     public String getSignable(){
-        return super.getSenderId() + super.getMessageId() + super.getType().toString()
+        return super.getSignable()
                 + getConsensusInstance() + getRound() + getReplyTo() + getReplyToMessageId() + getMessage();
     }
 }
@@ -0,0 +1,38 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+// Starts a session with a peer (see Session), sent signed with RSA so the peer knows whose key it is
+// The key is the same for every peer of the link, so the same signature is sent to all of them
+public class HandshakeMessage extends Message {
+
+    // Encoded X25519 public key of the sender (Base64)
+    private String publicKey;
+    // Creation time of the link of the sender, a handshake older than the current session is ignored
+    private long epoch;
+    // Whether the destination should answer with its own handshake, not signed: a forged one only
+    // makes the destination send its own handshake again
+    private boolean replyRequested;
+
+    public HandshakeMessage(String senderId, String publicKey, long epoch, boolean replyRequested) {
+        super(senderId, Type.HANDSHAKE);
+        this.publicKey = publicKey;
+        this.epoch = epoch;
+        this.replyRequested = replyRequested;
+    }
+
+    public String getPublicKey() {
+        return publicKey;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public boolean isReplyRequested() {
+        return replyRequested;
+    }
+
+    @Override
+    public String getSignable() {
+        return super.getSignable() + publicKey + epoch;
+    }
+}
@@ -1,16 +1,24 @@
 package pt.ulisboa.tecnico.hdsledger.communication;
 
-import com.google.gson.Gson;
-
 import pt.ulisboa.tecnico.hdsledger.communication.Message.Type;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -18,45 +26,146 @@ import java.util.logging.LogManager;
 public class Link {
 
     private static final CustomLogger LOGGER = new CustomLogger(Link.class.getName());
+    /** Minimum time between two handshakes asking the same node for a session */
+    private static final long HANDSHAKE_INTERVAL_MILLIS = 500;
     /** Time to wait for an ACK before resending the message */
     private final int BASE_SLEEP_TIME;
-    /** UDP Socket */
-    private final DatagramSocket socket;
+    /** Largest UDP payload */
+    private static final int MAX_DATAGRAM_BYTES = 65535;
+    /** Receive buffers of each link, the receiver waits once every one holds a datagram not decoded yet */
+    private static final int RECEIVE_BUFFERS = 32;
+    /** Received messages waiting to be handled, the verifiers wait once there are this many */
+    private static final int INBOX_CAPACITY = 10000;
+    /** UDP channel, used (in blocking mode) by the receiver thread and every sender at once */
+    private final DatagramChannel channel;
+    /** Direct buffers datagrams are read into, given back once the message is decoded */
+    private final BufferPool receiveBuffers = new BufferPool(MAX_DATAGRAM_BYTES, RECEIVE_BUFFERS);
     /** Map of all nodes in the network */
     private final Map<String, ProcessConfig> nodes = new ConcurrentHashMap<>();
     /** Reference to the node itself */
     private final ProcessConfig config;
     /** Class to deserialize messages to */
     private final Class<? extends Message> messageClass;
+    /** Encodes and decodes the datagrams */
+    private final MessageCodec codec;
     /** Set of received messages from specific node (prevent duplicates) */
-    private final Map<String, CollapsingSet> receivedMessages = new ConcurrentHashMap<>();
+    private final Map<String, SlidingWindowSet> receivedMessages = new ConcurrentHashMap<>();
     /** Set of received ACKs from specific node */
-    private final CollapsingSet receivedAcks = new CollapsingSet();
-    /** Message counter */
-    private final AtomicInteger messageCounter = new AtomicInteger(0);
-    /** Send messages to self by pushing to queue instead of through the network */
-    private final Queue<Message> localhostQueue = new ConcurrentLinkedQueue<>();
+    private final Map<String, SlidingWindowSet> receivedAcks = new ConcurrentHashMap<>();
+    /** Node -> Message counter, ids are contiguous per destination so the received sets keep collapsing */
+    private final Map<String, AtomicInteger> messageCounters = new ConcurrentHashMap<>();
+    /** Messages ready to be handled, messages to self are pushed here instead of through the network */
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>(INBOX_CAPACITY);
+    /** Threads that sign and send messages */
+    private final ExecutorService senderExecutor;
+    /** Threads that verify the signatures of received messages */
+    private final ExecutorService verifierExecutor;
+    /** Sender -> Delivery of its last received message, the next one is only delivered after it */
+    private final Map<String, CompletableFuture<Void>> deliveryOrder = new HashMap<>();
+    /** Thread that reads and decodes datagrams, started by the first receive */
+    private Thread receiver;
+    /** Timer wheel (shared by the process) that checks pending messages for ACKs and resends them */
+    private final HashedWheelTimer retransmissionTimer;
+    /** Node -> Acknowledgements owed to it */
+    private final Map<String, PendingAcks> pendingAcks = new ConcurrentHashMap<>();
+    /** Time to wait for more messages of a peer before acknowledging them */
+    private final long ackDelayMillis;
+    /** Whether datagrams to the nodes of the link are authenticated by sessions instead of RSA signatures */
+    private final boolean sessions;
+    /** X25519 key pair of this process, shared by every session of the link */
+    private final KeyPair sessionKeyPair;
+    /** Creation time of the link, sent in handshakes so peers can tell a restart from a replay */
+    private final long sessionEpoch = System.currentTimeMillis();
+    /** Node -> Session with it, replaced when the node restarts */
+    private final Map<String, Session> peerSessions = new ConcurrentHashMap<>();
+    /** Node -> Time the last handshake asking it for a session was sent */
+    private final Map<String, Long> handshakeTimes = new ConcurrentHashMap<>();
+    /** Signature of the handshake of the link, the same for every node, null until the first handshake */
+    private byte[] handshakeSignature;
+
+    /** Message sent to the network that is still waiting for an ACK */
+    private static class PendingMessage {
+        private final String nodeId;
+        private final InetAddress address;
+        private final int port;
+        private final Message data;
+        /** Message is encoded once and the same bytes are used in every attempt */
+        private final byte[] encoded;
+        private int attempt = 1;
+        private int sleepTime;
+        /** Check for the ACK, armed again for every attempt */
+        private HashedWheelTimer.Timeout ackCheck;
+
+        private PendingMessage(String nodeId, InetAddress address, int port, Message data, byte[] encoded,
+                int sleepTime) {
+            this.nodeId = nodeId;
+            this.address = address;
+            this.port = port;
+            this.data = data;
+            this.encoded = encoded;
+            this.sleepTime = sleepTime;
+        }
+    }
+
+    /**
+     * Acknowledgements owed to a peer. Every message received from it is acknowledged together, with the
+     * floor and bitmap of its received set, either by the next message sent to it or by a single ACK
+     */
+    private static class PendingAcks {
+        /** Whether messages were received since the peer was last sent the received set */
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        /** Sends the ACK, armed by the first message received after the last acknowledgement */
+        private HashedWheelTimer.Timeout flush;
+    }
 
     public Link(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass) {
-        this(self, port, nodes, messageClass, false, 200);
+        this(self, port, nodes, messageClass, false);
     }
 
     public Link(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
-            boolean activateLogs, int baseSleepTime) {
+            boolean sessions) {
+        this(self, port, nodes, messageClass, MessageCodec.forFormat(self.getCodec()), false, 200, sessions);
+    }
+
+    public Link(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
+            MessageCodec codec) {
+        this(self, port, nodes, messageClass, codec, false, 200, false);
+    }
+
+    public Link(ProcessConfig self, int port, ProcessConfig[] nodes, Class<? extends Message> messageClass,
+            MessageCodec codec, boolean activateLogs, int baseSleepTime, boolean sessions) {
 
         this.config = self;
         this.messageClass = messageClass;
+        this.codec = codec;
         this.BASE_SLEEP_TIME = baseSleepTime;
+        this.senderExecutor = createSenderExecutor(self);
+        this.verifierExecutor = Executors.newFixedThreadPool(Math.max(1, self.getVerifierThreads()));
+        this.retransmissionTimer = HashedWheelTimer.shared();
+        this.ackDelayMillis = self.getAckDelayMillis();
+        this.sessions = sessions;
+        try {
+            this.sessionKeyPair = sessions ? Session.generateKeyPair() : null;
+        } catch (GeneralSecurityException e) {
+            throw new HDSSException(ErrorMessage.CannotCreateSession);
+        }
 
         Arrays.stream(nodes).forEach(node -> {
             String id = node.getId();
             this.nodes.put(id, node);
-            receivedMessages.put(id, new CollapsingSet());
+            receivedMessages.put(id, new SlidingWindowSet());
+            receivedAcks.put(id, new SlidingWindowSet());
+            messageCounters.put(id, new AtomicInteger(0));
+
+            PendingAcks acks = new PendingAcks();
+            acks.flush = retransmissionTimer.newTimeout(() -> senderExecutor.execute(() -> flushAcks(id)));
+            pendingAcks.put(id, acks);
         });
 
         try {
-            this.socket = new DatagramSocket(port, InetAddress.getByName(config.getHostname()));
-        } catch (UnknownHostException | SocketException e) {
+            this.channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getByName(config.getHostname()), port));
+        } catch (IOException e) {
             throw new HDSSException(ErrorMessage.CannotOpenSocket);
         }
         if (!activateLogs) {
@@ -64,8 +173,23 @@ public class Link {
         }
     }
 
-    public void ackAll(List<Integer> messageIds) {
-        receivedAcks.addAll(messageIds);
+    /**
+     * Creates the executor used to sign and send messages, as chosen in the configuration
+     *
+     * @param self configuration of the process
+     * @return ExecutorService - sender executor
+     */
+    private static ExecutorService createSenderExecutor(ProcessConfig self) {
+        if (self.getSenderExecutor() == ProcessConfig.SenderExecutor.VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.WARNING, MessageFormat.format(
+                        "{0} - Virtual threads are not available, using a fixed pool of {1} sender threads",
+                        self.getId(), self.getSenderThreads()));
+            }
+        }
+        return Executors.newFixedThreadPool(self.getSenderThreads());
     }
 
     /**
@@ -74,13 +198,8 @@ public class Link {
      * @param data The message to be broadcasted
      */
     public void broadcast(Message data) {
-        Gson gson = new Gson();
-
-        nodes.forEach((destId, dest) -> {
-            // If it isn't a client node, broadcast the message
-                send(destId, gson.fromJson(gson.toJson(data), data.getClass()));
-            }
-        );
+        // Each destination gets its own copy, since sending sets the message id and signature
+        nodes.forEach((destId, dest) -> send(destId, codec.copy(data)));
     }
 
     /**
@@ -92,37 +211,36 @@ public class Link {
      */
     public void send(String nodeId, Message data) {
 
-        // Spawn a new thread to send the message
-        // To avoid blocking while waiting for ACK
-        new Thread(() -> {
+        // Signing and sending run in the sender pool, the ACK is awaited
+        // by the retransmission timer instead of a sleeping thread
+        senderExecutor.execute(() -> {
             try {
                 ProcessConfig node = nodes.get(nodeId);
                 if (node == null)
                     throw new HDSSException(ErrorMessage.NoSuchNode);
 
                 if (data.getMessageId() == -1) {
-                    data.setMessageId(messageCounter.getAndIncrement());
+                    data.setMessageId(messageCounters.get(nodeId).getAndIncrement());
                 }
 
                 // If the message is not ACK, it will be resent
                 InetAddress destAddress = InetAddress.getByName(node.getHostname());
                 int destPort = node.getPort();
-                int count = 1;
-                int messageId = data.getMessageId();
-                int sleepTime = BASE_SLEEP_TIME;
-
-                // sign the message and get the signature
-                byte[] signature;
 
                 // If a message was once signed, can't be signed again
                 if (data.getSignature() == null) {
-                    signature = RSASignature.sign(data.getSignable(), data.getSenderId());
-                    data.setSignature(signature);
+                    // Messages to other nodes carry the acknowledgements owed to them
+                    if (!nodeId.equals(this.config.getId()))
+                        attachAcks(nodeId, data);
+                    // The session authenticates the datagram, only messages that may be forwarded need a signature
+                    if (!isSessionAuthenticated(nodeId, data.getType()))
+                        data.setSignature(RSASignature.sign(data.getSignable(), data.getSenderId()));
                 }
 
                 // Send message to local queue instead of using network if destination in self
                 if (nodeId.equals(this.config.getId())) {
-                    this.localhostQueue.add(data);
+                    this.receivedAcks.get(nodeId).add(data.getMessageId());
+                    deliver(data, true, true);
 
                     LOGGER.log(Level.INFO,
                             MessageFormat.format("{0} - Message {1} (locally) sent to {2}:{3} successfully",
@@ -131,31 +249,51 @@ public class Link {
                     return;
                 }
 
-                for (;;) {
-                    LOGGER.log(Level.INFO, MessageFormat.format(
-                            "{0} - Sending {1} message to {2}:{3} with message ID {4} - Attempt #{5}", config.getId(),
-                            data.getType(), destAddress, destPort, messageId, count++));
-
-                    unreliableSend(destAddress, destPort, data);
-
-                    // Wait (using exponential back-off), then look for ACK
-                    Thread.sleep(sleepTime);
-
-                    // Receive method will set receivedAcks when sees corresponding ACK
-                    if (receivedAcks.contains(messageId))
-                        break;
-
-                    sleepTime <<= 1;
-                }
-
-                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} sent to {2}:{3} successfully",
-                        config.getId(), data.getType(), destAddress, destPort));
-            } catch (InterruptedException | UnknownHostException e) {
+                transmit(new PendingMessage(nodeId, destAddress, destPort, data, codec.encode(data), BASE_SLEEP_TIME));
+            } catch (UnknownHostException e) {
                 e.printStackTrace();
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Sends one attempt of a message and schedules the check for its ACK
+     * (using exponential back-off)
+     *
+     * @param pending The message waiting for an ACK
+     */
+    private void transmit(PendingMessage pending) {
+        LOGGER.log(Level.INFO, MessageFormat.format(
+                "{0} - Sending {1} message to {2}:{3} with message ID {4} - Attempt #{5}", config.getId(),
+                pending.data.getType(), pending.address, pending.port, pending.data.getMessageId(),
+                pending.attempt++));
+
+        // Sealed again in every attempt, so the peer gets a fresh sequence number even if it lost its session
+        byte[] datagram = pending.encoded;
+        if (sessions) {
+            Session session = peerSessions.get(pending.nodeId);
+            if (session != null)
+                datagram = session.seal(datagram);
+            else
+                requestHandshake(pending.nodeId);
+        }
+        unreliableSend(pending.address, pending.port, datagram);
+
+        if (pending.ackCheck == null) {
+            pending.ackCheck = retransmissionTimer.newTimeout(() -> {
+                // Receive method will set receivedAcks when sees corresponding ACK
+                if (receivedAcks.get(pending.nodeId).contains(pending.data.getMessageId())) {
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} sent to {2}:{3} successfully",
+                            config.getId(), pending.data.getType(), pending.address, pending.port));
+                    return;
+                }
+                pending.sleepTime <<= 1;
+                senderExecutor.execute(() -> transmit(pending));
+            });
+        }
+        pending.ackCheck.reschedule(pending.sleepTime);
     }
 
     /**
@@ -170,130 +308,400 @@ public class Link {
      * @param data The message to be sent
      */
     public void unreliableSend(InetAddress hostname, int port, Message data) {
-        new Thread(() -> {
-            try {
-                byte[] buf = new Gson().toJson(data).getBytes();
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, hostname, port);
-                socket.send(packet);
-            } catch (IOException e) {
-                e.printStackTrace();
-                throw new HDSSException(ErrorMessage.SocketSendingError);
-            }
-        }).start();
+        unreliableSend(hostname, port, codec.encode(data));
+    }
+
+    private void unreliableSend(InetAddress hostname, int port, byte[] buf) {
+        try {
+            channel.send(ByteBuffer.wrap(buf), new InetSocketAddress(hostname, port));
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new HDSSException(ErrorMessage.SocketSendingError);
+        }
     }
 
     /**
      * Receives a message from any node in the network (blocking)
+     * Datagrams are decoded and their signatures verified in the verifier pool,
+     * messages of the same sender are returned in the order they arrived
      *
      * @return Message - received message
      * @throws Exception exception
      */
     public Message receive() throws Exception {
-
-        Message message = null;
-        byte[] signature = null;
-        String serialized = "";
-        Boolean local = false;
-        DatagramPacket response = null;
-
-        if (this.localhostQueue.size() > 0) {
-            message = this.localhostQueue.poll();
-            local = true; 
-            this.receivedAcks.add(message.getMessageId());
-        } else {
-            byte[] buf = new byte[65535];
-            response = new DatagramPacket(buf, buf.length);
-
-            socket.receive(response);
-            // signature is appended to the message, since is sha2 is 512 bytes
-            byte[] messageBuffer = Arrays.copyOfRange(response.getData(), 0, response.getLength());
-            serialized = new String(messageBuffer);
-            // If the sender is a client (id >= 20), deserialize the message to a RequestMessage
-            message = new Gson().fromJson(serialized, Message.class);
+        synchronized (this) {
+            if (receiver == null) {
+                receiver = new Thread(this::receiveLoop, "receiver-" + config.getId() + "-" + channel.socket().getLocalPort());
+                receiver.setDaemon(true);
+                receiver.start();
+            }
         }
+        return inbox.take();
+    }
 
-        signature = message.getSignature();
+    /**
+     * Reads datagrams from the channel into pooled buffers and hands them to the verifier pool
+     * Only the sender and type are read here (and the HMAC checked, for sealed datagrams), the full
+     * decode runs in the verifier pool, which gives the buffer back to the pool
+     */
+    private void receiveLoop() {
+        while (true) {
+            // Waits while every buffer holds a datagram not decoded yet, new datagrams queue in the socket meanwhile
+            // (or are dropped, and sent again since they were never acknowledged)
+            ByteBuffer buffer;
+            try {
+                buffer = receiveBuffers.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ByteBuffer frame;
+            Message header;
+            try {
+                channel.receive(buffer);
+                buffer.flip();
+                frame = sessions && Session.isSealed(buffer) ? Session.frameOf(buffer) : buffer;
+                header = codec.peek(frame);
+            } catch (IOException | HDSSException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping datagram: {1}",
+                        config.getId(), e.getMessage()));
+                receiveBuffers.release(buffer);
+                continue;
+            }
 
-        // Data creation: message + signature
-        // Data data = new Data(message, signature);
+            String senderId = header.getSenderId();
+            if (!nodes.containsKey(senderId)) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping message from unknown sender {1}",
+                        config.getId(), senderId));
+                receiveBuffers.release(buffer);
+                continue;
+            }
 
-        String senderId = message.getSenderId();
-        int messageId = message.getMessageId();
+            // Handshakes are handled by the link itself, they never reach the inbox
+            if (header.getType().equals(Type.HANDSHAKE)) {
+                Message handshake = decode(buffer, frame);
+                if (sessions && handshake instanceof HandshakeMessage)
+                    verifierExecutor.execute(() -> acceptHandshake((HandshakeMessage) handshake));
+                continue;
+            }
 
-        if (!nodes.containsKey(senderId))
-            throw new HDSSException(ErrorMessage.NoSuchNode);
+            Session session = null;
+            if (frame != buffer) {
+                session = peerSessions.get(senderId);
+                // The sender has a session this process does not know (e.g. this process restarted)
+                if (session == null) {
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping message from {1}, no session with it",
+                            config.getId(), senderId));
+                    receiveBuffers.release(buffer);
+                    senderExecutor.execute(() -> requestHandshake(senderId));
+                    continue;
+                }
+                // The HMAC costs far less than a signature, so forged or replayed datagrams never reach the verifiers
+                if (!session.open(buffer)) {
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping datagram from {1}, forged or replayed",
+                            config.getId(), senderId));
+                    receiveBuffers.release(buffer);
+                    continue;
+                }
+            }
+            boolean sealed = session != null;
+
+            // ACKs are cumulative, so they are applied as soon as they are verified, in any order
+            if (header.getType().equals(Type.ACK)) {
+                verifierExecutor.execute(() -> {
+                    Message message = decode(buffer, frame);
+                    if (message != null && authenticate(message, sealed)) {
+                        applyAcks(senderId, message);
+                        enqueue(message);
+                    }
+                });
+                continue;
+            }
 
+            // Messages are decoded and their signatures verified in parallel, but a message is only
+            // delivered after the previous message of the same sender
+            // A message that can't be decoded is dropped, there is nothing to mark as invalid
+            CompletableFuture<Map.Entry<Message, Boolean>> verified = CompletableFuture.supplyAsync(() -> {
+                Message message = decode(buffer, frame);
+                return message == null ? null : Map.entry(message, authenticate(message, sealed));
+            }, verifierExecutor);
+
+            CompletableFuture<Void> previous = deliveryOrder.getOrDefault(senderId, CompletableFuture.completedFuture(null));
+            deliveryOrder.put(senderId, previous.thenCombine(verified, (ignored, received) -> {
+                if (received == null)
+                    return null;
+                // A failed delivery must not hold back the next messages of the sender
+                try {
+                    deliver(received.getKey(), received.getValue(), false);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Failed to deliver message {1} from {2}: {3}",
+                            config.getId(), received.getKey().getMessageId(), senderId, e.getMessage()));
+                }
+                return null;
+            }));
+        }
+    }
 
-        // Handle ACKS, since it's possible to receive multiple acks from the same
-        // message
-        if (message.getType().equals(Type.ACK)) {
-            receivedAcks.add(messageId);
-            return message;
+    /**
+     * Decodes a received datagram and gives its buffer back to the pool
+     *
+     * @param buffer pooled buffer holding the datagram
+     * @param frame encoded message inside the buffer
+     * @return Message - decoded message, null if it is malformed
+     */
+    private Message decode(ByteBuffer buffer, ByteBuffer frame) {
+        try {
+            // Single decode, ACKs and handshakes come as their own class and everything else as messageClass
+            return codec.decode(frame, this.messageClass);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping datagram: {1}",
+                    config.getId(), e.getMessage()));
+            return null;
+        } finally {
+            receiveBuffers.release(buffer);
         }
+    }
 
-        // It's not an ACK -> Deserialize for the correct type (if not a client who sent)
-        if (!local) {
-            message = new Gson().fromJson(serialized, this.messageClass);
+    /**
+     * Checks that a message was sent by its sender: by the HMAC of its session when the datagram was sealed
+     * (already checked by the receiver thread), by its RSA signature otherwise. Messages that may be forwarded
+     * must carry a valid signature anyway
+     *
+     * @param message received message
+     * @param sealed whether the datagram was sealed by the session with the sender
+     * @return boolean - whether the message is authentic
+     */
+    private boolean authenticate(Message message, boolean sealed) {
+        if (sealed && !isForwardable(message.getType()))
+            return true;
+        try {
+            return RSASignature.verifySign(message.getSignable(), message.getSignature(), message.getSenderId());
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Failed to authenticate message {1} from {2}: {3}",
+                    config.getId(), message.getMessageId(), message.getSenderId(), e.getMessage()));
+            return false;
         }
+    }
 
-        boolean isRepeated = !receivedMessages.get(message.getSenderId()).add(messageId);
-        Type originalType = message.getType();
+    /**
+     * PREPARE and COMMIT messages are forwarded inside quorum certificates, so any node must be able
+     * to check them, which an HMAC only the sender and the receiver know can't do
+     *
+     * @param type type of the message
+     * @return boolean - whether the message must be signed with RSA
+     */
+    private static boolean isForwardable(Type type) {
+        return type == Type.PREPARE || type == Type.COMMIT;
+    }
 
-        // Local messages don't have a need to verify the signature
-        if (!local) {
-            // If signature doesn't match, message is set to INVALID
-            if (!RSASignature.verifySign(message.getSignable(), signature, message.getSenderId())) {
-                System.out.println(Colors.CYAN + "Message of type is invalid: " + message.getType() + Colors.RESET);
-                message.setType(Type.INVALID);
+    /**
+     * @param nodeId destination
+     * @param type type of the message
+     * @return boolean - whether a message to the node can go without an RSA signature
+     */
+    private boolean isSessionAuthenticated(String nodeId, Type type) {
+        if (!sessions || isForwardable(type))
+            return false;
+        // Messages to self never go through the network
+        return nodeId.equals(config.getId()) || peerSessions.containsKey(nodeId);
+    }
+
+    /**
+     * Sets up (or replaces) the session with the sender of a handshake, and answers it if asked to
+     *
+     * @param handshake received handshake
+     */
+    private void acceptHandshake(HandshakeMessage handshake) {
+        String senderId = handshake.getSenderId();
+        try {
+            if (!RSASignature.verifySign(handshake.getSignable(), handshake.getSignature(), senderId)) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping invalid handshake from {1}",
+                        config.getId(), senderId));
+                return;
+            }
+
+            // A handshake of the current epoch gives the same key, keeping the session keeps its sequence numbers
+            // An older one is a replay, only a newer one (the peer restarted) replaces the session
+            long epoch = handshake.getEpoch();
+            Session current = peerSessions.get(senderId);
+            if (current == null || epoch > current.getPeerEpoch()) {
+                Session established = Session.establish(sessionKeyPair, config.getId(),
+                        Base64.getDecoder().decode(handshake.getPublicKey()), senderId, epoch);
+                // Handshakes are verified in parallel, another one may have set up the session meanwhile
+                if (peerSessions.compute(senderId, (id, previous) -> previous == null
+                        || epoch > previous.getPeerEpoch() ? established : previous) == established)
+                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Session established with {1}",
+                            config.getId(), senderId));
             }
+
+            if (handshake.isReplyRequested())
+                senderExecutor.execute(() -> sendHandshake(senderId, false));
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping handshake from {1}: {2}",
+                    config.getId(), senderId, e.getMessage()));
         }
+    }
 
-        // Message already received (add returns false if already exists) => Discard
-        if (isRepeated) {
-            message.setType(Type.IGNORE);
+    /**
+     * Asks a node for a session, at most once every HANDSHAKE_INTERVAL_MILLIS
+     *
+     * @param nodeId node
+     */
+    private void requestHandshake(String nodeId) {
+        long now = System.currentTimeMillis();
+        Long last = handshakeTimes.put(nodeId, now);
+        if (last != null && now - last < HANDSHAKE_INTERVAL_MILLIS) {
+            handshakeTimes.put(nodeId, last);
+            return;
         }
+        sendHandshake(nodeId, true);
+    }
 
-        switch (message.getType()) {
-            case PRE_PREPARE, INVALID -> {
-                return message;
-            }
-            case IGNORE -> {
-                if (!originalType.equals(Type.COMMIT))
-                    return message;
+    /**
+     * Sends the public key of the link to a node, signed with RSA
+     *
+     * @param nodeId node
+     * @param replyRequested whether the node should answer with its own handshake
+     */
+    private void sendHandshake(String nodeId, boolean replyRequested) {
+        try {
+            HandshakeMessage handshake = new HandshakeMessage(config.getId(),
+                    Base64.getEncoder().encodeToString(sessionKeyPair.getPublic().getEncoded()), sessionEpoch,
+                    replyRequested);
+            synchronized (sessionKeyPair) {
+                if (handshakeSignature == null)
+                    handshakeSignature = RSASignature.sign(handshake.getSignable(), config.getId());
             }
-            case PREPARE -> {
-                ConsensusMessage consensusMessage = (ConsensusMessage) message;
-                if (consensusMessage.getReplyTo() != null && consensusMessage.getReplyTo().equals(config.getId()))
-                    receivedAcks.add(consensusMessage.getReplyToMessageId());
+            handshake.setSignature(handshakeSignature);
 
-                return message;
-            }
-            case COMMIT, ROUND_CHANGE -> {
-                ConsensusMessage consensusMessage = (ConsensusMessage) message;
-                if (consensusMessage.getReplyTo() != null && consensusMessage.getReplyTo().equals(config.getId()))
-                    receivedAcks.add(consensusMessage.getReplyToMessageId());
-            }
-            default -> {}
+            ProcessConfig node = nodes.get(nodeId);
+            unreliableSend(InetAddress.getByName(node.getHostname()), node.getPort(), codec.encode(handshake));
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Failed to send handshake to {1}: {2}",
+                    config.getId(), nodeId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Discards repeated messages, marks the ones with a wrong signature, schedules the
+     * acknowledgement of the authentic ones and puts the message in the inbox
+     *
+     * @param message received message
+     * @param authentic whether the signature matches the sender
+     * @param local whether the message was sent to self (no ACK is needed)
+     */
+    private void deliver(Message message, boolean authentic, boolean local) {
+        int messageId = message.getMessageId();
+        String senderId = message.getSenderId();
+
+        // If signature doesn't match, message is set to INVALID
+        // It is neither recorded nor acknowledged, so a forged copy can't shadow the real message
+        if (!authentic) {
+            System.out.println(Colors.CYAN + "Message of type is invalid: " + message.getType() + Colors.RESET);
+            message.setType(Type.INVALID);
+            enqueue(message);
+            return;
         }
 
+        SlidingWindowSet received = receivedMessages.get(senderId);
+
+        // Too far ahead of the missing messages of the sender, dropped without an ACK so it is sent again later
+        if (received.isBeyondWindow(messageId)) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Dropping message {1} from {2}, beyond the receive window",
+                    config.getId(), messageId, senderId));
+            return;
+        }
+
+        // Message already received (add returns false if already exists) => Discard
+        if (!received.add(messageId)) {
+            message.setType(Type.IGNORE);
+        }
+
+        // Every message also acknowledges what the sender received from this process
+        applyAcks(senderId, message);
+        if (message instanceof ConsensusMessage consensusMessage && consensusMessage.getReplyTo() != null
+                && consensusMessage.getReplyTo().equals(config.getId()))
+            receivedAcks.get(senderId).add(consensusMessage.getReplyToMessageId());
+
+        // Repeated messages are acknowledged again, the sender missed the previous acknowledgement
         if (!local) {
-            InetAddress address = InetAddress.getByName(response.getAddress().getHostAddress());
-            int port = response.getPort();
+            PendingAcks acks = pendingAcks.get(senderId);
+            if (acks.pending.compareAndSet(false, true))
+                acks.flush.reschedule(ackDelayMillis);
+        }
 
-            Message responseMessage = new Message(this.config.getId(), Type.ACK);
-            responseMessage.setMessageId(messageId);
+        enqueue(message);
+    }
 
-            // ACK is sent without needing for another ACK because
-            // we're assuming an eventually synchronous network
-            // Even if a node receives the message multiple times,
-            // it will discard duplicates
+    /**
+     * Puts a message in the inbox, waiting for space if it is full
+     * The thread delivering it (a verifier, or a sender for messages to self) waits, so received
+     * messages stop being delivered and the receiver runs out of buffers, instead of the inbox growing without bound
+     *
+     * @param message message ready to be handled
+     */
+    private void enqueue(Message message) {
+        try {
+            inbox.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Marks the messages a peer says it received from this process
+     *
+     * @param senderId peer
+     * @param message message of the peer, with its floor and bitmap of received messages
+     */
+    private void applyAcks(String senderId, Message message) {
+        int floor = message.getAckFloor();
+        SlidingWindowSet acks = receivedAcks.get(senderId);
+        acks.addUpTo(floor);
+        for (long bitmap = message.getAckBitmap(); bitmap != 0; bitmap &= bitmap - 1)
+            acks.add(floor + 1 + Long.numberOfTrailingZeros(bitmap));
+    }
+
+    /**
+     * Sets the floor and bitmap of the messages received from a peer in a message to it
+     *
+     * @param nodeId peer
+     * @param message message to the peer, not signed yet
+     */
+    private void attachAcks(String nodeId, Message message) {
+        // Cleared before reading the set, a message received meanwhile schedules another ACK
+        pendingAcks.get(nodeId).pending.set(false);
+        SlidingWindowSet received = receivedMessages.get(nodeId);
+        int floor = received.getFloor();
+        message.setAcks(floor, received.getBitmap(floor + 1));
+    }
 
-            byte[] ackSignature = RSASignature.sign(responseMessage.getSignable(), responseMessage.getSenderId());
-            responseMessage.setSignature(ackSignature);
+    /**
+     * Sends a single ACK with every message received from a peer, unless a message to the peer
+     * already carried them
+     *
+     * @param nodeId peer
+     */
+    private void flushAcks(String nodeId) {
+        if (!pendingAcks.get(nodeId).pending.get())
+            return;
 
-            unreliableSend(address, port, responseMessage);
+        Message ack = new Message(this.config.getId(), Type.ACK);
+        attachAcks(nodeId, ack);
+
+        // ACK is sent without needing for another ACK because
+        // we're assuming an eventually synchronous network
+        // If it is lost, the messages are resent and acknowledged again
+        try {
+            ProcessConfig node = nodes.get(nodeId);
+            Session session = sessions ? peerSessions.get(nodeId) : null;
+            if (session == null)
+                ack.setSignature(RSASignature.sign(ack.getSignable(), ack.getSenderId()));
+            byte[] encoded = codec.encode(ack);
+            unreliableSend(InetAddress.getByName(node.getHostname()), node.getPort(),
+                    session == null ? encoded : session.seal(encoded));
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Failed to send ACK to {1}: {2}",
+                    config.getId(), nodeId, e.getMessage()));
         }
-        
-        return message;
     }
 }
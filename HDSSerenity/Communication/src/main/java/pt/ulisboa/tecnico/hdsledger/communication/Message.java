@@ -10,6 +10,10 @@ public class Message implements Serializable {
     private int messageId = -1;
     // Message type
     private Type type;
+    // Every message up to this id (of the receiver to the sender) was received
+    private int ackFloor = -1;
+    // Bit i set if message ackFloor + 1 + i was received
+    private long ackBitmap = 0;
 
     // Signature
     private byte[] signature = null;
@@ -18,9 +22,11 @@ public class Message implements Serializable {
         // CONSENSUS
         PRE_PREPARE, PREPARE, COMMIT, ROUND_CHANGE,
         // COMMUNICATION
-        ACK, IGNORE, INVALID,
+        ACK, IGNORE, INVALID, HANDSHAKE,
         // CLIENT
-        TRANSFER, TRANSFER_RESPONSE, BALANCE, BALANCE_RESPONSE, RESPONSE;
+        TRANSFER, TRANSFER_RESPONSE, BALANCE, BALANCE_RESPONSE, RESPONSE,
+        // CATCH-UP
+        CATCH_UP_REQUEST, CATCH_UP_REPLY;
     }
 
     public Message(String senderId, Type type) {
@@ -52,6 +58,19 @@ public class Message implements Serializable {
         this.type = type;
     }
 
+    public int getAckFloor() {
+        return ackFloor;
+    }
+
+    public long getAckBitmap() {
+        return ackBitmap;
+    }
+
+    public void setAcks(int ackFloor, long ackBitmap) {
+        this.ackFloor = ackFloor;
+        this.ackBitmap = ackBitmap;
+    }
+
     public byte[] getSignature() {
         return signature;
     }
@@ -62,6 +81,6 @@ public class Message implements Serializable {
 
     // Probably a good idea to have messages that extend from this to override this method
     public String getSignable(){
-        return senderId + Integer.toString(messageId) + type.toString();
+        return senderId + Integer.toString(messageId) + type.toString() + ackFloor + ":" + ackBitmap;
     }
 }
@@ -0,0 +1,156 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+
+// Compact proof that a quorum of nodes sent the same PREPARE (or COMMIT) for a round
+// The shared payload (the block digest) is stored once, each message of the quorum only keeps
+// the fields that differ between senders, which is enough to rebuild the signed messages
+public class QuorumCertificate {
+
+    /** Fields of a message of the quorum that are specific to its sender */
+    public static class Vote {
+        private final String senderId;
+        private final int messageId;
+        private final String replyTo;
+        private final int replyToMessageId;
+        /** Acknowledgements carried by the message, they are part of what was signed */
+        private final int ackFloor;
+        private final long ackBitmap;
+        private final byte[] signature;
+
+        public Vote(String senderId, int messageId, String replyTo, int replyToMessageId, int ackFloor,
+                long ackBitmap, byte[] signature) {
+            this.senderId = senderId;
+            this.messageId = messageId;
+            this.replyTo = replyTo;
+            this.replyToMessageId = replyToMessageId;
+            this.ackFloor = ackFloor;
+            this.ackBitmap = ackBitmap;
+            this.signature = signature;
+        }
+
+        private Vote(ConsensusMessage message) {
+            this(message.getSenderId(), message.getMessageId(), message.getReplyTo(),
+                    message.getReplyToMessageId(), message.getAckFloor(), message.getAckBitmap(),
+                    message.getSignature());
+        }
+
+        public String getSenderId() {
+            return senderId;
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        public String getReplyTo() {
+            return replyTo;
+        }
+
+        public int getReplyToMessageId() {
+            return replyToMessageId;
+        }
+
+        public int getAckFloor() {
+            return ackFloor;
+        }
+
+        public long getAckBitmap() {
+            return ackBitmap;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+    }
+
+    /** Type of the messages of the quorum */
+    private final Message.Type type;
+    /** Consensus instance of the messages */
+    private final int consensusInstance;
+    /** Round of the messages */
+    private final int round;
+    /** Serialized payload shared by every vote */
+    private final String value;
+    /** One vote per message of the quorum */
+    private final List<Vote> votes = new ArrayList<>();
+
+    public QuorumCertificate(Message.Type type, int consensusInstance, int round, String value) {
+        this.type = type;
+        this.consensusInstance = consensusInstance;
+        this.round = round;
+        this.value = value;
+    }
+
+    /**
+     * Creates the certificate from the messages of a quorum
+     * Messages with a different value than the first one are left out
+     *
+     * @param type type of the messages
+     * @param consensusInstance consensus instance
+     * @param round round
+     * @param messages messages received for that round
+     */
+    public QuorumCertificate(Message.Type type, int consensusInstance, int round, List<ConsensusMessage> messages) {
+        this(type, consensusInstance, round, messages.isEmpty() ? null : messages.get(0).getMessage());
+
+        for (ConsensusMessage message : messages) {
+            if (message.getMessage().equals(value))
+                votes.add(new Vote(message));
+        }
+    }
+
+    public void addVote(Vote vote) {
+        votes.add(vote);
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public List<Vote> getVotes() {
+        return votes;
+    }
+
+    public int getVoteCount() {
+        return votes.size();
+    }
+
+    /**
+     * Rebuilds the messages of the quorum, with their original signatures
+     *
+     * @return List<ConsensusMessage> - signed messages
+     */
+    public List<ConsensusMessage> toMessages() {
+        List<ConsensusMessage> messages = new ArrayList<>();
+        for (Vote vote : votes) {
+            ConsensusMessage message = new ConsensusMessageBuilder(vote.senderId, getType())
+                    .setConsensusInstance(consensusInstance)
+                    .setRound(round)
+                    .setReplyTo(vote.replyTo)
+                    .setReplyToMessageId(vote.replyToMessageId)
+                    .setMessage(value)
+                    .build();
+            message.setMessageId(vote.messageId);
+            message.setAcks(vote.ackFloor, vote.ackBitmap);
+            message.setSignature(vote.signature);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
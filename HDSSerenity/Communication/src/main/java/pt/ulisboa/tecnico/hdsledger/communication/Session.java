@@ -0,0 +1,153 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.SlidingWindowSet;
+
+// Authenticated channel with one peer, set up once by an X25519 key exchange whose public keys are
+// signed with RSA (see HandshakeMessage). Every datagram is then sent with a sequence number and an
+// HMAC-SHA256 of both, so it costs a hash instead of an RSA signature. Sequence numbers are never
+// reused, a datagram seen before is dropped.
+//
+// Sealed datagram layout:
+//   MARKER (1) | sequence (4) | HMAC(sequence | frame) (32) | frame
+// Frames of the codecs never start with MARKER, so sealed and signed datagrams can be told apart
+public class Session {
+
+    public static final byte MARKER = (byte) 0xA5;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String KEY_ALGORITHM = "X25519";
+    private static final int MAC_BYTES = 32;
+    private static final int HEADER_BYTES = 1 + Integer.BYTES + MAC_BYTES;
+
+    /** Key only this process and the peer know */
+    private final SecretKeySpec key;
+    /** Epoch of the handshake of the peer that set up the session */
+    private final long peerEpoch;
+    /** Sequence number of the next datagram sent */
+    private final AtomicInteger nextSequence = new AtomicInteger(0);
+    /** Sequence numbers of the datagrams received */
+    private final SlidingWindowSet receivedSequences = new SlidingWindowSet();
+    /** Mac engines are not thread safe, each thread keeps its own */
+    private final ThreadLocal<Mac> macs;
+
+    private Session(byte[] key, long peerEpoch) {
+        this.key = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.peerEpoch = peerEpoch;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(this.key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * @return KeyPair - new X25519 key pair, used for every session of a link
+     * @throws GeneralSecurityException if X25519 is not available
+     */
+    public static KeyPair generateKeyPair() throws GeneralSecurityException {
+        return KeyPairGenerator.getInstance(KEY_ALGORITHM).generateKeyPair();
+    }
+
+    /**
+     * Derives the session key from the X25519 shared secret, both ids and both public keys
+     * Both peers get the same key, whatever side computes it
+     *
+     * @param own key pair of this process
+     * @param ownId id of this process
+     * @param peerPublicKey encoded public key sent by the peer
+     * @param peerId id of the peer
+     * @param peerEpoch epoch of the handshake of the peer
+     * @return Session - session with the peer
+     * @throws GeneralSecurityException if the public key of the peer is not valid
+     */
+    public static Session establish(KeyPair own, String ownId, byte[] peerPublicKey, String peerId, long peerEpoch)
+            throws GeneralSecurityException {
+        PublicKey peerKey = KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(new X509EncodedKeySpec(peerPublicKey));
+        KeyAgreement agreement = KeyAgreement.getInstance(KEY_ALGORITHM);
+        agreement.init(own.getPrivate());
+        agreement.doPhase(peerKey, true);
+
+        byte[] ownPublicKey = own.getPublic().getEncoded();
+        boolean ownFirst = ownId.compareTo(peerId) < 0;
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(agreement.generateSecret());
+        digest.update((ownFirst ? ownId + ":" + peerId : peerId + ":" + ownId).getBytes(StandardCharsets.UTF_8));
+        digest.update(ownFirst ? ownPublicKey : peerPublicKey);
+        digest.update(ownFirst ? peerPublicKey : ownPublicKey);
+        return new Session(digest.digest(), peerEpoch);
+    }
+
+    /**
+     * @param datagram received bytes, from its position to its limit
+     * @return boolean - whether the datagram was sealed by a session
+     */
+    public static boolean isSealed(ByteBuffer datagram) {
+        return datagram.remaining() > HEADER_BYTES && datagram.get(datagram.position()) == MARKER;
+    }
+
+    /**
+     * @param datagram sealed datagram
+     * @return ByteBuffer - view of the encoded message inside the datagram (sharing its content)
+     */
+    public static ByteBuffer frameOf(ByteBuffer datagram) {
+        return datagram.duplicate().position(datagram.position() + HEADER_BYTES);
+    }
+
+    public long getPeerEpoch() {
+        return peerEpoch;
+    }
+
+    /**
+     * Authenticates an encoded message with the next sequence number
+     *
+     * @param frame encoded message
+     * @return byte[] - datagram to send
+     */
+    public byte[] seal(byte[] frame) {
+        int sequence = nextSequence.getAndIncrement();
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_BYTES + frame.length);
+        datagram.put(MARKER).putInt(sequence).put(mac(sequence, ByteBuffer.wrap(frame))).put(frame);
+        return datagram.array();
+    }
+
+    /**
+     * Checks the HMAC of a sealed datagram and that its sequence number was not seen before
+     *
+     * @param datagram sealed datagram, from its position to its limit (neither is moved)
+     * @return boolean - whether the datagram was sent by the peer and is not a replay
+     */
+    public boolean open(ByteBuffer datagram) {
+        int start = datagram.position();
+        int sequence = datagram.getInt(start + 1);
+        byte[] received = new byte[MAC_BYTES];
+        datagram.get(start + 1 + Integer.BYTES, received);
+
+        byte[] expected = mac(sequence, frameOf(datagram));
+        return MessageDigest.isEqual(expected, received) && receivedSequences.addMovingWindow(sequence);
+    }
+
+    private byte[] mac(int sequence, ByteBuffer frame) {
+        Mac mac = macs.get();
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(sequence).array());
+        mac.update(frame.duplicate());
+        return mac.doFinal();
+    }
+}
@@ -19,7 +19,8 @@ public class TResponseMessage {
         FAILED_RECEIVER,
         FAILED_SENDER,
         FAILED_SIGNATURE,
-        FAILED_REPEATED;
+        FAILED_REPEATED,
+        FAILED_FULL;
     }
 
     public TResponseMessage(String transaction, Status status) {
@@ -3,9 +3,6 @@ package pt.ulisboa.tecnico.hdsledger.communication;
 import com.google.gson.Gson;
 import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-
 public class TransferMessage {
 
     private final String sender;
@@ -14,23 +11,18 @@ public class TransferMessage {
     private final int nonce;
     private byte[] signature;
 
-    public TransferMessage(String sender, String receiver, Double amount) throws Exception {
+    /**
+     * @param nonce sequence number of the transfer, the sender must never reuse it
+     */
+    public TransferMessage(String sender, String receiver, Double amount, int nonce) throws Exception {
         this.sender = sender;
         this.receiver = receiver;
         this.amount = amount;
-        this.nonce = createNonce();
+        this.nonce = nonce;
         // Each client only has access to their private key
         this.signature = RSASignature.sign(this.getSignable(), sender);
     }
 
-    private int createNonce() {
-        try {
-            return SecureRandom.getInstance("SHA1PRNG").nextInt();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     public String getSender() {
         return sender;
     }
@@ -2,8 +2,7 @@ package pt.ulisboa.tecnico.hdsledger.communication.builder;
 
 import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.Message;
-
-import java.util.List;
+import pt.ulisboa.tecnico.hdsledger.communication.QuorumCertificate;
 
 public class ConsensusMessageBuilder {
     private final ConsensusMessage instance;
@@ -37,7 +36,7 @@ public class ConsensusMessageBuilder {
         return this;
     }
 
-    public ConsensusMessageBuilder setJustification(List<ConsensusMessage> justification) {
+    public ConsensusMessageBuilder setJustification(QuorumCertificate justification) {
         instance.setJustification(justification);
         return this;
     }
@@ -0,0 +1,309 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import pt.ulisboa.tecnico.hdsledger.communication.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Objects;
+
+// Length-prefixed binary codec
+//
+// Frame layout:
+//   version (1) | class (1) | type (1) | senderId (str) | messageId (4) | ackFloor (4) | ackBitmap (8)
+//   | signature (bytes) | body
+// The body of a handshake is publicKey (str) | epoch (8) | replyRequested (1)
+// str and bytes are an int length (-1 for null) followed by the content
+// The justification of a consensus message is a quorum certificate: its shared payload is
+// written once, followed by the sender specific fields of each vote
+//
+// The JSON payload of consensus messages is unwrapped, so the block is written once
+// and without escaping, and the block digest of PREPARE and COMMIT takes its 32 raw bytes.
+// The payload is only unwrapped when rebuilding it gives back the exact same string,
+// otherwise the signature would no longer match
+public class BinaryMessageCodec implements MessageCodec {
+
+    private static final byte VERSION = 4;
+
+    /** Class of the encoded message */
+    private static final byte MESSAGE = 0;
+    private static final byte CONSENSUS_MESSAGE = 1;
+    private static final byte CLIENT_MESSAGE = 2;
+    private static final byte HANDSHAKE_MESSAGE = 3;
+
+    /** Encoding of the payload of a consensus message */
+    private static final byte PAYLOAD_RAW = 0;
+    private static final byte PAYLOAD_BLOCK = 1;
+    private static final byte PAYLOAD_ROUND_CHANGE = 2;
+    private static final byte PAYLOAD_DIGEST = 3;
+
+    /** Size of a SHA-256 digest */
+    private static final int DIGEST_BYTES = 32;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public byte[] encode(Message message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeMessage(out, message);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotEncodeMessage);
+        }
+    }
+
+    @Override
+    public Message decode(byte[] data, Class<? extends Message> messageClass) {
+        return decode(ByteBuffer.wrap(data), messageClass);
+    }
+
+    @Override
+    public Message decode(ByteBuffer in, Class<? extends Message> messageClass) {
+        try {
+            if (in.get() != VERSION)
+                throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+            Message message = readMessage(in);
+            // Anything other than an ACK or a handshake must be of the class the link is expecting
+            if (message.getType() != Message.Type.ACK && message.getType() != Message.Type.HANDSHAKE
+                    && !messageClass.isInstance(message))
+                message.setType(Message.Type.INVALID);
+            return message;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        }
+    }
+
+    @Override
+    public Message peek(ByteBuffer data) {
+        ByteBuffer in = data.duplicate();
+        try {
+            if (in.get() != VERSION)
+                throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+            // Class of the message, only needed by the full decode
+            in.get();
+            Message.Type type = TYPES[in.get()];
+            return new Message(readString(in), type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        }
+    }
+
+    private void writeMessage(DataOutputStream out, Message message) throws IOException {
+        byte messageClass = message instanceof ConsensusMessage ? CONSENSUS_MESSAGE
+                : message instanceof ClientMessage ? CLIENT_MESSAGE
+                : message instanceof HandshakeMessage ? HANDSHAKE_MESSAGE : MESSAGE;
+
+        out.writeByte(messageClass);
+        out.writeByte(message.getType().ordinal());
+        writeString(out, message.getSenderId());
+        out.writeInt(message.getMessageId());
+        out.writeInt(message.getAckFloor());
+        out.writeLong(message.getAckBitmap());
+        writeBytes(out, message.getSignature());
+
+        switch (messageClass) {
+            case CONSENSUS_MESSAGE -> {
+                ConsensusMessage consensusMessage = (ConsensusMessage) message;
+                out.writeInt(consensusMessage.getConsensusInstance());
+                out.writeInt(consensusMessage.getRound());
+                writeString(out, consensusMessage.getReplyTo());
+                out.writeInt(consensusMessage.getReplyToMessageId());
+                writePayload(out, consensusMessage.getMessage());
+
+                writeCertificate(out, consensusMessage.getJustification());
+            }
+            case CLIENT_MESSAGE -> {
+                ClientMessage clientMessage = (ClientMessage) message;
+                writeString(out, clientMessage.getReplyTo());
+                out.writeInt(clientMessage.getReplyToMessageId());
+                writeString(out, clientMessage.getMessage());
+            }
+            case HANDSHAKE_MESSAGE -> {
+                HandshakeMessage handshake = (HandshakeMessage) message;
+                writeString(out, handshake.getPublicKey());
+                out.writeLong(handshake.getEpoch());
+                out.writeBoolean(handshake.isReplyRequested());
+            }
+            default -> {}
+        }
+    }
+
+    private Message readMessage(ByteBuffer in) {
+        byte messageClass = in.get();
+        Message.Type type = TYPES[in.get()];
+        String senderId = readString(in);
+
+        int messageId = in.getInt();
+        int ackFloor = in.getInt();
+        long ackBitmap = in.getLong();
+        byte[] signature = readBytes(in);
+
+        Message message = switch (messageClass) {
+            case CONSENSUS_MESSAGE -> new ConsensusMessage(senderId, type);
+            case CLIENT_MESSAGE -> new ClientMessage(senderId, type);
+            case HANDSHAKE_MESSAGE -> new HandshakeMessage(senderId, readString(in), in.getLong(), in.get() != 0);
+            case MESSAGE -> new Message(senderId, type);
+            default -> throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        };
+        message.setMessageId(messageId);
+        message.setAcks(ackFloor, ackBitmap);
+        message.setSignature(signature);
+
+        if (message instanceof ConsensusMessage consensusMessage) {
+            consensusMessage.setConsensusInstance(in.getInt());
+            consensusMessage.setRound(in.getInt());
+            consensusMessage.setReplyTo(readString(in));
+            consensusMessage.setReplyToMessageId(in.getInt());
+            consensusMessage.setMessage(readPayload(in, type));
+
+            consensusMessage.setJustification(readCertificate(in));
+        } else if (message instanceof ClientMessage clientMessage) {
+            clientMessage.setReplyTo(readString(in));
+            clientMessage.setReplyToMessageId(in.getInt());
+            clientMessage.setMessage(readString(in));
+        }
+        return message;
+    }
+
+    private void writeCertificate(DataOutputStream out, QuorumCertificate certificate) throws IOException {
+        if (certificate == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(certificate.getVoteCount());
+        out.writeByte(certificate.getType().ordinal());
+        out.writeInt(certificate.getConsensusInstance());
+        out.writeInt(certificate.getRound());
+        writePayload(out, certificate.getValue());
+        for (QuorumCertificate.Vote vote : certificate.getVotes()) {
+            writeString(out, vote.getSenderId());
+            out.writeInt(vote.getMessageId());
+            writeString(out, vote.getReplyTo());
+            out.writeInt(vote.getReplyToMessageId());
+            out.writeInt(vote.getAckFloor());
+            out.writeLong(vote.getAckBitmap());
+            writeBytes(out, vote.getSignature());
+        }
+    }
+
+    private QuorumCertificate readCertificate(ByteBuffer in) {
+        int voteCount = in.getInt();
+        if (voteCount < 0)
+            return null;
+        // Every vote takes at least 32 bytes, a bigger count can only be garbage
+        if (voteCount > in.remaining() / 32)
+            throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+
+        Message.Type type = TYPES[in.get()];
+        int consensusInstance = in.getInt();
+        int round = in.getInt();
+        QuorumCertificate certificate = new QuorumCertificate(type, consensusInstance, round, readPayload(in, type));
+        for (int i = 0; i < voteCount; i++) {
+            certificate.addVote(new QuorumCertificate.Vote(readString(in), in.getInt(), readString(in), in.getInt(),
+                    in.getInt(), in.getLong(), readBytes(in)));
+        }
+        return certificate;
+    }
+
+    private void writePayload(DataOutputStream out, String payload) throws IOException {
+        if (payload != null) {
+            try {
+                if (payload.startsWith("{\"block\":")) {
+                    String block = gson.fromJson(payload, PrePrepareMessage.class).getBlock();
+                    if (block != null && payload.equals(new PrePrepareMessage(block).toJson())) {
+                        out.writeByte(PAYLOAD_BLOCK);
+                        writeString(out, block);
+                        return;
+                    }
+                } else if (payload.startsWith("{\"digest\":")) {
+                    String digest = gson.fromJson(payload, PrepareMessage.class).getDigest();
+                    // Only lowercase digests survive the round trip through the raw bytes
+                    if (digest != null && digest.length() == 2 * DIGEST_BYTES && digest.equals(digest.toLowerCase())
+                            && payload.equals(new PrepareMessage(digest).toJson())) {
+                        out.writeByte(PAYLOAD_DIGEST);
+                        out.write(HEX.parseHex(digest));
+                        return;
+                    }
+                } else if (payload.startsWith("{\"preparedRound\":")) {
+                    RoundChangeMessage roundChange = gson.fromJson(payload, RoundChangeMessage.class);
+                    if (roundChange.getPreparedValue() != null && payload.equals(roundChange.toJson())) {
+                        out.writeByte(PAYLOAD_ROUND_CHANGE);
+                        out.writeInt(roundChange.getPreparedRound());
+                        writeString(out, roundChange.getPreparedValue());
+                        return;
+                    }
+                }
+            } catch (JsonSyntaxException | IllegalArgumentException e) {
+                // Not one of the known payloads, sent as is
+            }
+        }
+        out.writeByte(PAYLOAD_RAW);
+        writeString(out, payload);
+    }
+
+    private String readPayload(ByteBuffer in, Message.Type type) {
+        byte encoding = in.get();
+        return switch (encoding) {
+            case PAYLOAD_RAW -> readString(in);
+            case PAYLOAD_BLOCK -> new PrePrepareMessage(Objects.requireNonNull(readString(in))).toJson();
+            case PAYLOAD_DIGEST -> {
+                byte[] digest = new byte[DIGEST_BYTES];
+                in.get(digest);
+                // Both digest payloads share the same JSON shape
+                yield type == Message.Type.COMMIT
+                        ? new CommitMessage(HEX.formatHex(digest)).toJson()
+                        : new PrepareMessage(HEX.formatHex(digest)).toJson();
+            }
+            case PAYLOAD_ROUND_CHANGE -> {
+                int preparedRound = in.getInt();
+                yield new RoundChangeMessage(preparedRound, readString(in)).toJson();
+            }
+            default -> throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        if (length > in.remaining())
+            throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+}
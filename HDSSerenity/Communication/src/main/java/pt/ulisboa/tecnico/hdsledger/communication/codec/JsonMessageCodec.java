@@ -0,0 +1,63 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import pt.ulisboa.tecnico.hdsledger.communication.HandshakeMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Human readable codec, mainly useful to debug the traffic between processes
+public class JsonMessageCodec implements MessageCodec {
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public byte[] encode(Message message) {
+        return gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message decode(byte[] data, Class<? extends Message> messageClass) {
+        JsonObject json = JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+        String type = json.has("type") ? json.get("type").getAsString() : "";
+        if (type.equals(Message.Type.ACK.name()))
+            return gson.fromJson(json, Message.class);
+        if (type.equals(Message.Type.HANDSHAKE.name()))
+            return gson.fromJson(json, HandshakeMessage.class);
+        return gson.fromJson(json, messageClass);
+    }
+
+    @Override
+    public Message peek(ByteBuffer in) {
+        // Only the top level names are read, the values of every other field are skipped without being bound
+        try (JsonReader reader = new JsonReader(new StringReader(StandardCharsets.UTF_8.decode(in.duplicate()).toString()))) {
+            String senderId = null;
+            Message.Type type = null;
+            reader.beginObject();
+            while (reader.hasNext() && (senderId == null || type == null)) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.STRING && name.equals("senderId"))
+                    senderId = reader.nextString();
+                else if (reader.peek() == JsonToken.STRING && name.equals("type"))
+                    type = Message.Type.valueOf(reader.nextString());
+                else
+                    reader.skipValue();
+            }
+            if (type == null)
+                throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+            return new Message(senderId, type);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            throw new HDSSException(ErrorMessage.CannotDecodeMessage);
+        }
+    }
+}
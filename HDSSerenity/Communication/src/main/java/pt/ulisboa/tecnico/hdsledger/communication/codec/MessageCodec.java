@@ -0,0 +1,66 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.nio.ByteBuffer;
+
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
+
+// Turns messages into datagram payloads and back
+public interface MessageCodec {
+
+    /**
+     * @param message message to encode (including its signature)
+     * @return byte[] - bytes to be sent in a datagram
+     */
+    byte[] encode(Message message);
+
+    /**
+     * Decodes a datagram payload. ACKs are always decoded as a plain Message,
+     * any other type is decoded as the given class
+     *
+     * @param data received bytes
+     * @param messageClass class expected by the link
+     * @return Message - decoded message
+     */
+    Message decode(byte[] data, Class<? extends Message> messageClass);
+
+    /**
+     * Decodes a datagram payload read into a buffer, from its position to its limit
+     * The message keeps no reference to the buffer, so the buffer can be reused right after
+     *
+     * @param in received bytes
+     * @param messageClass class expected by the link
+     * @return Message - decoded message
+     */
+    default Message decode(ByteBuffer in, Class<? extends Message> messageClass) {
+        byte[] data = new byte[in.remaining()];
+        in.get(data);
+        return decode(data, messageClass);
+    }
+
+    /**
+     * Reads the sender and type of a datagram payload without decoding the rest of it,
+     * so the link can route the datagram before paying for the full decode
+     *
+     * @param in received bytes, from its position to its limit (the position is not moved)
+     * @return Message - message with only its sender and type set
+     */
+    Message peek(ByteBuffer in);
+
+    /**
+     * Deep copy of a message, used to give each destination its own instance
+     *
+     * @param message message to copy
+     * @return Message - copy of the message
+     */
+    default Message copy(Message message) {
+        return decode(encode(message), message.getClass());
+    }
+
+    static MessageCodec forFormat(ProcessConfig.Codec format) {
+        return switch (format) {
+            case JSON -> new JsonMessageCodec();
+            case BINARY -> new BinaryMessageCodec();
+        };
+    }
+}
@@ -6,12 +6,12 @@ import pt.ulisboa.tecnico.hdsledger.communication.Link;
 import pt.ulisboa.tecnico.hdsledger.service.services.ClientService;
 import pt.ulisboa.tecnico.hdsledger.service.services.NodeService;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfigBuilder;
 
 import java.text.MessageFormat;
 import java.util.Arrays;
-import java.util.TimerTask;
 import java.util.logging.Level;
 
 public class Node {
@@ -24,24 +24,6 @@ public class Node {
     private static NodeService nodeService;
     private static ClientService clientService;
 
-    // Class needs to be created in order for the scheduler do use it
-    // runs the roundChange
-    public static class RoundTimer extends TimerTask {
-        // Does NOT create a new thread !
-        @Override
-        public void run() {
-            System.out.println("======== TIMER EXPIRED ========\n\n");
-
-            // should not be a problem, because of there's only ONE TIMER in each nodeService
-            // even though there might be multiple threads doing other things
-
-            // not sure if this is needed
-            //Node.nodeService.notify();
-            Node.nodeService.uponTimerExpiry();
-
-        }
-    }
-
     public static void main(String[] args) {
 
         try {
@@ -61,6 +43,9 @@ public class Node {
 
             ProcessConfig[] clientConfigs = new ProcessConfigBuilder().fromFile(clientConfigPath);
 
+            // Load every key once, signing and verifying only use the cached ones
+            KeyRing.loadAll(id, nodeConfigs, clientConfigs);
+
             // MULTIPLE LEADERS BYZANTINE TEST
             if (nodeConfig.getBehavior() == ProcessConfig.Behavior.MULT_LEADERS){
                 Arrays.stream(nodeConfigs).filter(ProcessConfig::isLeader).forEach(c -> c.setLeader(false));
@@ -68,7 +53,9 @@ public class Node {
             }
 
             // Abstraction to send and receive messages
-            Link linkToNodes = new Link(nodeConfig, nodeConfig.getPort(), nodeConfigs, ConsensusMessage.class);
+            // Sessions are only set up between nodes, clients keep signing every message
+            Link linkToNodes = new Link(nodeConfig, nodeConfig.getPort(), nodeConfigs, ConsensusMessage.class,
+                    nodeConfig.getAuthentication() == ProcessConfig.Authentication.SESSION);
             Link linkToClients = new Link(nodeConfig, nodeConfig.getClientPort(), clientConfigs, ClientMessage.class);
 
             // Services that implement listen from UDPService
@@ -0,0 +1,194 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+// Balances of every account, in fixed point: a long counting millionths of a coin, so the fees and
+// transfers add up exactly. The accounts are known at startup and each one gets a dense index in a
+// primitive array. A block is applied as a whole, readers never see half of it
+public class AccountState {
+
+    /** Units of a coin */
+    public static final long SCALE = 1_000_000L;
+    /** Fee paid to the author of a block for each of its transactions, in units */
+    public static final long FEE = toUnits(Block.getFixedTransactionFee());
+
+    /** Account id -> Index in the balances */
+    private final Map<String, Integer> indexes = new HashMap<>();
+    /** Index -> Balance, in units */
+    private final long[] balances;
+    /** Sum of every balance, no block can change it */
+    private final long totalSupply;
+    /** Blocks are applied with the write lock, single balances are read optimistically */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @param initialBalances account id -> initial balance, in coins
+     */
+    public AccountState(Map<String, Double> initialBalances) {
+        this.balances = new long[initialBalances.size()];
+        long supply = 0;
+        for (Map.Entry<String, Double> account : initialBalances.entrySet()) {
+            int index = indexes.size();
+            indexes.put(account.getKey(), index);
+            balances[index] = toUnits(account.getValue());
+            supply += balances[index];
+        }
+        this.totalSupply = supply;
+    }
+
+    /**
+     * @param amount amount in coins, anything below a unit is rounded
+     * @return long - amount in units
+     */
+    public static long toUnits(double amount) {
+        return Math.round(amount * SCALE);
+    }
+
+    /**
+     * @param units amount in units
+     * @return double - closest amount in coins
+     */
+    public static double toAmount(long units) {
+        return (double) units / SCALE;
+    }
+
+    /**
+     * @param transaction transaction to apply
+     * @return long - units taken from the sender, amount and fee
+     */
+    public static long costOf(Transaction transaction) {
+        return toUnits(transaction.getAmount()) + FEE;
+    }
+
+    /**
+     * @param accountId account id
+     * @return boolean - whether the account exists
+     */
+    public boolean contains(String accountId) {
+        return indexes.containsKey(accountId);
+    }
+
+    /**
+     * @param accountId account id
+     * @return long - current balance, in units
+     */
+    public long getUnits(String accountId) {
+        int index = indexOf(accountId);
+        long stamp = lock.tryOptimisticRead();
+        long units = balances[index];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                units = balances[index];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * @param accountId account id
+     * @return double - current balance, in coins
+     */
+    public double getBalance(String accountId) {
+        return toAmount(getUnits(accountId));
+    }
+
+    /**
+     * @return long - sum of the balances, in units, as of the last block applied
+     */
+    public long getSupplyUnits() {
+        long stamp = lock.readLock();
+        try {
+            long supply = 0;
+            for (long balance : balances)
+                supply += balance;
+            return supply;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getTotalSupplyUnits() {
+        return totalSupply;
+    }
+
+    /**
+     * Moves the amount of every transaction from its sender to its receiver, and its fee from the sender
+     * to the author of the block. Every account is checked first, so a block is applied whole or not at all
+     *
+     * @param authorId author of the block, receives the fees
+     * @param transactions transactions of the block, in order
+     */
+    public void applyBlock(String authorId, List<Transaction> transactions) {
+        int author = indexOf(authorId);
+        for (Transaction transaction : transactions) {
+            indexOf(transaction.getSender());
+            indexOf(transaction.getReceiver());
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            for (Transaction transaction : transactions) {
+                long amount = toUnits(transaction.getAmount());
+                balances[indexes.get(transaction.getSender())] -= amount + FEE;
+                balances[indexes.get(transaction.getReceiver())] += amount;
+                balances[author] += FEE;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Map<String, Long> - account id -> balance in units, as of the last block applied
+     */
+    public Map<String, Long> copyBalances() {
+        long[] copy;
+        long stamp = lock.readLock();
+        try {
+            copy = balances.clone();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        Map<String, Long> accounts = new LinkedHashMap<>();
+        indexes.forEach((accountId, index) -> accounts.put(accountId, copy[index]));
+        return accounts;
+    }
+
+    /**
+     * Replaces every balance, e.g. with the ones of a snapshot
+     * Nothing changes unless the balances are of the same accounts and add up to the same supply
+     *
+     * @param accounts account id -> balance in units
+     * @return boolean - whether the balances were replaced
+     */
+    public boolean restore(Map<String, Long> accounts) {
+        if (!accounts.keySet().equals(indexes.keySet())
+                || accounts.values().stream().mapToLong(Long::longValue).sum() != totalSupply)
+            return false;
+
+        long stamp = lock.writeLock();
+        try {
+            accounts.forEach((accountId, units) -> balances[indexes.get(accountId)] = units);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    private int indexOf(String accountId) {
+        Integer index = indexes.get(accountId);
+        if (index == null)
+            throw new HDSSException(ErrorMessage.NoSuchAccount);
+        return index;
+    }
+}
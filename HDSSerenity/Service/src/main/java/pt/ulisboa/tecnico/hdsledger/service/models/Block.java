@@ -1,19 +1,31 @@
 package pt.ulisboa.tecnico.hdsledger.service.models;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.LinkedList;
 import java.util.List;
 import com.google.gson.Gson;
 
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyRing;
+
 public class Block {
-    private List<Transaction> transactions = new LinkedList<>();
+    /** Previous hash of the first block of the ledger */
+    public static final String GENESIS_HASH = "0".repeat(64);
 
-    private static int maxBlockSize = 2;
+    private List<Transaction> transactions = new LinkedList<>();
 
     private static double fixedTransactionFee = 0.001;
 
     // Node who created
     private String authorId;
 
+    // Hash of the block that comes before this one in the ledger
+    private String previousHash;
+
     private byte[] signature;
 
     /** Empty Constructor mainly used for attack tests */
@@ -26,10 +38,6 @@ public class Block {
         this.transactions = transactions;
     }
 
-    public static int getMaxBlockSize() {
-        return maxBlockSize;
-    }
-
     public static double getFixedTransactionFee() {
         return fixedTransactionFee;
     }
@@ -46,15 +54,56 @@ public class Block {
 
     public void setAuthorId(String authorId) { this.authorId = authorId; }
 
+    public String getPreviousHash() { return previousHash; }
+
+    public void setPreviousHash(String previousHash) { this.previousHash = previousHash; }
+
     public String getSignable(){
         String signable = "";
         for (Transaction transaction : getTransactions()) {
             signable = signable.concat(transaction.getSignable());
         }
-        signable = signable + maxBlockSize + fixedTransactionFee + authorId;
+        signable = signable + fixedTransactionFee + authorId + previousHash;
         return signable;
     }
 
+    /**
+     * SHA-256 digest of the contents of the block, PREPARE and COMMIT messages only carry it
+     * Computed over a fixed binary layout (not the JSON), so every node gets the same digest
+     * for the same block however it was serialized
+     *
+     * @return String - digest in hexadecimal
+     */
+    public String getHash() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, previousHash);
+            writeString(out, authorId);
+            out.writeDouble(fixedTransactionFee);
+            out.writeInt(transactions.size());
+            for (Transaction transaction : transactions) {
+                writeString(out, transaction.getSender());
+                writeString(out, transaction.getReceiver());
+                out.writeDouble(transaction.getAmount());
+                out.writeInt(transaction.getNonce());
+                byte[] signature = transaction.getSignature() == null ? new byte[0] : transaction.getSignature();
+                out.writeInt(signature.length);
+                out.write(signature);
+            }
+            out.flush();
+
+            MessageDigest digest = KeyRing.getDigestEngine();
+            return HexFormat.of().formatHex(digest.digest(bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+
     public byte[] getSignature() {
         return signature;
     }
@@ -0,0 +1,146 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.HashedWheelTimer;
+
+// Decides when pending transactions are cut into a block
+// A block is cut as soon as it is full (in transactions or in bytes), or with whatever is
+// pending once a transaction has waited maxLatencyMillis, so a lone transaction is never stuck
+public class BlockCutter {
+
+    /** Transactions selected for a block, in order */
+    public class Batch {
+        private final List<Transaction> transactions = new ArrayList<>();
+        private int bytes = 0;
+        private boolean full = false;
+
+        /**
+         * Adds a transaction if it fits in the block
+         *
+         * @param transaction transaction to add
+         * @return boolean - false if the block is full, no more transactions should be offered
+         */
+        public boolean add(Transaction transaction) {
+            if (full)
+                return false;
+
+            int size = sizeOf(transaction);
+            // A transaction bigger than the limit still gets a block of its own
+            if (!transactions.isEmpty() && bytes + size > maxBytes) {
+                full = true;
+                return false;
+            }
+
+            transactions.add(transaction);
+            bytes += size;
+            full = transactions.size() >= maxTransactions || bytes >= maxBytes;
+            return true;
+        }
+
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+
+        public boolean isEmpty() {
+            return transactions.isEmpty();
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+    }
+
+    /** Maximum number of transactions in a block */
+    private final int maxTransactions;
+    /** Maximum size of the transactions of a block, in bytes */
+    private final int maxBytes;
+    /** Maximum time a pending transaction waits before a partial block is cut */
+    private final long maxLatencyMillis;
+    /** Called from the timer thread when the latency deadline expires, should hand the cut to another thread */
+    private final Runnable onDeadline;
+    /** Latency deadline, on the shared timer wheel */
+    private final HashedWheelTimer.Timeout deadline;
+
+    /** The deadline is counting, a transaction is waiting */
+    private boolean armed = false;
+    /** The deadline expired, the next block may be partial */
+    private boolean due = false;
+
+    public BlockCutter(int maxTransactions, int maxBytes, long maxLatencyMillis, Runnable onDeadline) {
+        this.maxTransactions = Math.max(1, maxTransactions);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxLatencyMillis = Math.max(1, maxLatencyMillis);
+        this.onDeadline = onDeadline;
+        this.deadline = HashedWheelTimer.shared().newTimeout(() -> {
+            synchronized (this) {
+                armed = false;
+                due = true;
+            }
+            // The timer thread only counts, the callback hands the cut to the consensus
+            this.onDeadline.run();
+        });
+    }
+
+    public static int sizeOf(Transaction transaction) {
+        return transaction.toJson().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Cheap check, used before selecting the transactions of a block
+     *
+     * @param transactions number of pending transactions
+     * @param bytes size of the pending transactions
+     * @return boolean - whether they may be enough to fill a block
+     */
+    public boolean mayBeFull(int transactions, int bytes) {
+        return transactions >= maxTransactions || bytes >= maxBytes;
+    }
+
+    /**
+     * A transaction is waiting, starts counting its latency unless the deadline is already set
+     */
+    public synchronized void arm() {
+        if (armed || due)
+            return;
+
+        armed = true;
+        deadline.reschedule(maxLatencyMillis);
+    }
+
+    /**
+     * @return boolean - whether a transaction waited long enough for a partial block to be cut
+     */
+    public synchronized boolean isDue() {
+        return due;
+    }
+
+    /**
+     * A block was cut, the deadline starts again with the next transaction
+     *
+     * @param pendingLeft whether transactions are still waiting for a block
+     */
+    public synchronized void cut(boolean pendingLeft) {
+        due = false;
+        if (armed) {
+            deadline.cancel();
+            armed = false;
+        }
+        if (pendingLeft)
+            arm();
+    }
+}
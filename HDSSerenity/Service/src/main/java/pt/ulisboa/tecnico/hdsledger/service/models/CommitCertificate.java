@@ -0,0 +1,36 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.util.List;
+
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.QuorumCertificate;
+
+// Compact proof that a consensus instance was decided, the COMMIT quorum of the deciding round
+// Kept (and stored in the block log) after the messages of the instance are pruned
+public class CommitCertificate extends QuorumCertificate {
+
+    /**
+     * Creates the certificate from the COMMIT messages of the deciding round
+     * Messages with a different value than the first one are left out
+     *
+     * @param consensusInstance decided instance
+     * @param round deciding round
+     * @param commitMessages COMMIT messages received for that round
+     */
+    public CommitCertificate(int consensusInstance, int round, List<ConsensusMessage> commitMessages) {
+        super(Message.Type.COMMIT, consensusInstance, round, commitMessages);
+    }
+
+    @Override
+    public Message.Type getType() {
+        return Message.Type.COMMIT;
+    }
+
+    /**
+     * @return long - rough estimate of the heap used by the certificate, in bytes
+     */
+    public long getRetainedBytes() {
+        return MessageBucket.estimateSize(this);
+    }
+}
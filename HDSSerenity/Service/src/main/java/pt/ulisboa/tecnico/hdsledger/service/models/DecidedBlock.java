@@ -0,0 +1,37 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import com.google.gson.Gson;
+
+// Record of the block log: a decided block together with the commit quorum that decided it
+public class DecidedBlock {
+
+    private final int consensusInstance;
+    private final Block block;
+    private final CommitCertificate certificate;
+
+    public DecidedBlock(int consensusInstance, Block block, CommitCertificate certificate) {
+        this.consensusInstance = consensusInstance;
+        this.block = block;
+        this.certificate = certificate;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public Block getBlock() {
+        return block;
+    }
+
+    public CommitCertificate getCertificate() {
+        return certificate;
+    }
+
+    public static DecidedBlock fromJson(String json) {
+        return new Gson().fromJson(json, DecidedBlock.class);
+    }
+
+    public String toJson() {
+        return new Gson().toJson(this);
+    }
+}
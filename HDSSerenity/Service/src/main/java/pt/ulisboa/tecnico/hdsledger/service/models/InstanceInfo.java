@@ -1,13 +1,21 @@
 package pt.ulisboa.tecnico.hdsledger.service.models;
 
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import pt.ulisboa.tecnico.hdsledger.communication.CommitMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.QuorumCertificate;
 
 public class InstanceInfo {
 
+    /** Guards the state of the instance, instances make progress independently of each other */
+    private final ReentrantLock lock = new ReentrantLock();
+
     private int currentRound = 1;
     private int preparedRound = -1;
     private Block preparedBlock;
+    /** PREPARE quorum of the prepared round, justifies the ROUND-CHANGE messages of this node */
+    private QuorumCertificate prepareCertificate;
     private CommitMessage commitMessage;
     private int committedRound = -1;
     private int latestRoundChange = -1;
@@ -15,6 +23,10 @@ public class InstanceInfo {
 
     public InstanceInfo() { }
 
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
     public int getCurrentRound() {
         return currentRound;
     }
@@ -41,6 +53,14 @@ public class InstanceInfo {
         this.preparedBlock = preparedBlock;
     }
 
+    public QuorumCertificate getPrepareCertificate() {
+        return prepareCertificate;
+    }
+
+    public void setPrepareCertificate(QuorumCertificate prepareCertificate) {
+        this.prepareCertificate = prepareCertificate;
+    }
+
     public int getCommittedRound() {
         return committedRound;
     }
@@ -72,4 +92,14 @@ public class InstanceInfo {
     public void setLatestRoundChangeBroadcast(int latestBroadcastRoundChange) {
         this.latestRoundChangeBroadcast = latestBroadcastRoundChange;
     }
+
+    /**
+     * @return long - rough estimate of the heap used by this instance, in bytes
+     */
+    public long getRetainedBytes() {
+        return MessageBucket.OBJECT_OVERHEAD
+                + (preparedBlock == null ? 0 : preparedBlock.toJson().length())
+                + (commitMessage == null ? 0 : commitMessage.getDigest().length())
+                + (prepareCertificate == null ? 0 : MessageBucket.estimateSize(prepareCertificate));
+    }
 }
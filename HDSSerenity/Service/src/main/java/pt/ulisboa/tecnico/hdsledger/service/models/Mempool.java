@@ -0,0 +1,199 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Transfer requests waiting to be added to a block, indexed by (sender, nonce)
+// Each sender has its own FIFO queue. Blocks are filled round-robin across the senders,
+// oldest first, so a client that floods the node can't take every slot of a block
+public class Mempool {
+
+    public enum Admission {
+        ADDED,
+        // Same sender and nonce as a pending transaction
+        DUPLICATE,
+        // The mempool is full and the sender already has its share of it
+        FULL
+    }
+
+    /** Pending transaction with its arrival order */
+    private static class Entry {
+        private final Transaction transaction;
+        private final long sequence;
+
+        private Entry(Transaction transaction, long sequence) {
+            this.transaction = transaction;
+            this.sequence = sequence;
+        }
+    }
+
+    /** Position in the queue of a sender while building the selection order */
+    private static class Cursor {
+        private final Iterator<Entry> iterator;
+        private Entry current;
+        private int round = 0;
+
+        private Cursor(Iterator<Entry> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext())
+                return false;
+            current = iterator.next();
+            round++;
+            return true;
+        }
+    }
+
+    /** Maximum number of pending transactions */
+    private final int capacity;
+    /** Called with the transactions dropped to make room for others */
+    private final Consumer<Transaction> onEvict;
+    /** Whether a transaction is proposed in a running instance, it can't be evicted then */
+    private final Predicate<Transaction> isReserved;
+    /** Sender -> Its pending transactions, oldest first */
+    private final Map<String, ArrayDeque<Entry>> senders = new HashMap<>();
+    /** (sender, nonce) -> Pending transaction */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** Arrival order of the next transaction */
+    private long nextSequence = 0;
+    /** Last transaction added */
+    private Transaction newest;
+
+    public Mempool(int capacity, Consumer<Transaction> onEvict, Predicate<Transaction> isReserved) {
+        this.capacity = Math.max(1, capacity);
+        this.onEvict = onEvict;
+        this.isReserved = isReserved;
+    }
+
+    public static String keyOf(Transaction transaction) {
+        return transaction.getSender() + ":" + transaction.getNonce();
+    }
+
+    /**
+     * Adds a transaction to the end of the queue of its sender
+     * When full, the newest transaction of the sender with the most pending transactions
+     * is evicted, unless that is the sender of the new transaction
+     * Transactions reserved by a running instance are never evicted, they may still be decided
+     *
+     * @param transaction transaction to add
+     * @return Admission - whether it was added
+     */
+    public synchronized Admission add(Transaction transaction) {
+        String key = keyOf(transaction);
+        if (entries.containsKey(key))
+            return Admission.DUPLICATE;
+
+        ArrayDeque<Entry> queue = senders.get(transaction.getSender());
+        int pending = queue == null ? 0 : queue.size();
+
+        if (entries.size() >= capacity) {
+            Entry evicted = null;
+            ArrayDeque<Entry> evictedQueue = null;
+            // Largest senders first, the newest transaction that is not reserved
+            List<ArrayDeque<Entry>> largest = senders.values().stream()
+                    .filter(candidate -> candidate.size() > pending + 1)
+                    .sorted(Comparator.comparingInt((ArrayDeque<Entry> candidate) -> candidate.size()).reversed())
+                    .toList();
+            for (ArrayDeque<Entry> candidate : largest) {
+                Iterator<Entry> newestFirst = candidate.descendingIterator();
+                while (evicted == null && newestFirst.hasNext()) {
+                    Entry next = newestFirst.next();
+                    if (!isReserved.test(next.transaction))
+                        evicted = next;
+                }
+                if (evicted != null) {
+                    evictedQueue = candidate;
+                    break;
+                }
+            }
+            if (evicted == null)
+                return Admission.FULL;
+
+            evictedQueue.removeLastOccurrence(evicted);
+            removeEntry(evicted.transaction, evictedQueue);
+            onEvict.accept(evicted.transaction);
+        }
+
+        Entry entry = new Entry(transaction, nextSequence++);
+        senders.computeIfAbsent(transaction.getSender(), sender -> new ArrayDeque<>()).addLast(entry);
+        entries.put(key, entry);
+        newest = transaction;
+        return Admission.ADDED;
+    }
+
+    /**
+     * Removes a transaction, usually because it was decided or found invalid
+     *
+     * @param transaction transaction to remove
+     * @return boolean - whether it was pending
+     */
+    public synchronized boolean remove(Transaction transaction) {
+        Entry entry = entries.get(keyOf(transaction));
+        if (entry == null)
+            return false;
+
+        ArrayDeque<Entry> queue = senders.get(transaction.getSender());
+        // Decided transactions are usually the oldest ones, found right away
+        queue.removeFirstOccurrence(entry);
+        removeEntry(transaction, queue);
+        return true;
+    }
+
+    private void removeEntry(Transaction transaction, ArrayDeque<Entry> queue) {
+        entries.remove(keyOf(transaction));
+        if (queue.isEmpty())
+            senders.remove(transaction.getSender());
+        if (newest != null && keyOf(newest).equals(keyOf(transaction)))
+            newest = null;
+    }
+
+    public synchronized boolean contains(Transaction transaction) {
+        return entries.containsKey(keyOf(transaction));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Transaction - last transaction added, null if it was already removed
+     */
+    public synchronized Transaction getNewest() {
+        return newest;
+    }
+
+    /**
+     * Order in which transactions should be tried for a block: the first pending transaction
+     * of every sender, then the second one, and so on, oldest first within each round
+     *
+     * @return List<Transaction> - every pending transaction
+     */
+    public synchronized List<Transaction> getSelectionOrder() {
+        List<Transaction> order = new ArrayList<>(entries.size());
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(
+                Comparator.comparingInt((Cursor cursor) -> cursor.round)
+                        .thenComparingLong(cursor -> cursor.current.sequence));
+        for (ArrayDeque<Entry> queue : senders.values()) {
+            cursors.add(new Cursor(queue.iterator()));
+        }
+
+        while (!cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            order.add(cursor.current.transaction);
+            if (cursor.advance())
+                cursors.add(cursor);
+        }
+        return order;
+    }
+}
@@ -10,28 +10,72 @@ import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
 public class MessageBucket {
 
     private static final CustomLogger LOGGER = new CustomLogger(MessageBucket.class.getName());
+    /** Rough size of an object header plus the map entry holding it, used in heap estimates */
+    public static final int OBJECT_OVERHEAD = 64;
     /** Quorum size */
     private final int quorumSize;
 
     /** f + 1 quorum size */
     private final int existsCorrectSet;
 
-    /** Instance -> Round -> Sender ID -> Consensus message */
-    private final Map<Integer, Map<Integer, Map<String, ConsensusMessage>>> bucket = new ConcurrentHashMap<>();
+    /** Instance -> Round -> Messages of the round */
+    private final Map<Integer, Map<Integer, RoundMessages>> bucket = new ConcurrentHashMap<>();
+
+    /**
+     * Messages of a round, with the number of senders behind each block digest
+     * Digests are counted once, when their message is added
+     */
+    private static class RoundMessages {
+        /** Sender ID -> Consensus message */
+        private final Map<String, ConsensusMessage> messages = new ConcurrentHashMap<>();
+        /** Sender ID -> Digest it sent */
+        private final Map<String, String> senderDigests = new HashMap<>();
+        /** Digest -> Number of senders of the digest */
+        private final Map<String, Integer> counts = new HashMap<>();
+        /** Digest with a quorum, null while there is none */
+        private String quorumDigest;
+
+        private synchronized void add(ConsensusMessage message, String digest, int quorumSize) {
+            String senderId = message.getSenderId();
+            messages.put(senderId, message);
+            if (digest == null)
+                return;
+
+            String previous = senderDigests.put(senderId, digest);
+            if (digest.equals(previous))
+                return;
+
+            // The sender replaced its digest, it no longer counts for the previous one
+            if (previous != null && counts.merge(previous, -1, Integer::sum) < quorumSize
+                    && previous.equals(quorumDigest))
+                quorumDigest = null;
+
+            if (counts.merge(digest, 1, Integer::sum) >= quorumSize)
+                quorumDigest = digest;
+        }
+
+        private synchronized Optional<String> getQuorumDigest() {
+            return Optional.ofNullable(quorumDigest);
+        }
+    }
 
     public void printBucket() {
         for (int instance : this.bucket.keySet()) {
             System.out.println("Instance: " + instance);
             for (int round : bucket.get(instance).keySet()) {
                 System.out.println("    Round: " + round);
-                for (String senderId : bucket.get(instance).get(round).keySet()) {
-                    System.out.println("        Sender ID: " + senderId);
-                    System.out.println("        Message: " + bucket.get(instance).get(round).get(senderId));
+                for (Map.Entry<String, ConsensusMessage> entry : bucket.get(instance).get(round).messages.entrySet()) {
+                    System.out.println("        Sender ID: " + entry.getKey());
+                    System.out.println("        Message: " + entry.getValue());
                 }
             }
         }
     }
 
+    public int getQuorumSize() {
+        return quorumSize;
+    }
+
     public MessageBucket(int nodeCount) {
         int f = Math.floorDiv(nodeCount - 1, 3);
         quorumSize = Math.floorDiv(nodeCount + f, 2) + 1;
@@ -40,6 +84,7 @@ public class MessageBucket {
 
     /**
      * Add a message to the bucket
+     * The block digest of PREPARE and COMMIT messages is deserialized here, once, and counted for its quorum
      *
      * @param message message to add
      */
@@ -47,9 +92,25 @@ public class MessageBucket {
         int consensusInstance = message.getConsensusInstance();
         int round = message.getRound();
 
-        bucket.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).putIfAbsent(round, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).get(round).put(message.getSenderId(), message);
+        String digest = switch (message.getType()) {
+            case PREPARE -> message.deserializePrepareMessage().getDigest();
+            case COMMIT -> message.deserializeCommitMessage().getDigest();
+            default -> null;
+        };
+
+        bucket.computeIfAbsent(consensusInstance, i -> new ConcurrentHashMap<>())
+                .computeIfAbsent(round, r -> new RoundMessages())
+                .add(message, digest, quorumSize);
+    }
+
+    /**
+     * @return Map<String, ConsensusMessage> - messages of the round by sender, null if there are none
+     */
+    private Map<String, ConsensusMessage> messagesOf(int instance, int round) {
+        Map<Integer, RoundMessages> rounds = bucket.get(instance);
+        if (rounds == null || rounds.get(round) == null)
+            return null;
+        return rounds.get(round).messages;
     }
 
     /**
@@ -60,11 +121,12 @@ public class MessageBucket {
      * @return Optional<List<ConsensusMessage>> - Optional list
      */
     public Optional<List<ConsensusMessage>> getPrepareMessages(int instance, int round) {
-        if (bucket.get(instance) == null || bucket.get(instance).get(round) == null) {
+        Map<String, ConsensusMessage> messages = messagesOf(instance, round);
+        if (messages == null) {
             return Optional.empty();
         }
 
-        return Optional.of(bucket.get(instance).get(round).values().stream().toList());
+        return Optional.of(messages.values().stream().toList());
     }
 
     /**
@@ -75,11 +137,12 @@ public class MessageBucket {
      * @return Optional<List<ConsensusMessage>> - Optional list
      */
     public Optional<List<ConsensusMessage>> getCommitMessages(int instance, int round) {
-        if (bucket.get(instance) == null || bucket.get(instance).get(round) == null) {
+        Map<String, ConsensusMessage> messages = messagesOf(instance, round);
+        if (messages == null) {
             return Optional.empty();
         }
 
-        return Optional.of(bucket.get(instance).get(round).values().stream().toList());
+        return Optional.of(messages.values().stream().toList());
     }
 
     /**
@@ -88,27 +151,10 @@ public class MessageBucket {
      * @param nodeId nodeId
      * @param instance instance
      * @param round round
-     * @return Optional<String> - Empty if no quorum, otherwise value of the quorum
+     * @return Optional<String> - Empty if no quorum, otherwise block digest of the quorum
      */
     public Optional<String> hasValidPrepareQuorum(String nodeId, int instance, int round) {
-        if (bucket.get(instance) == null || bucket.get(instance).get(round) == null)
-            return Optional.empty();
-
-        // Create mapping of value to frequency
-        HashMap<String, Integer> frequency = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            PrepareMessage prepareMessage = message.deserializePrepareMessage();
-
-            frequency.put(prepareMessage.getBlock(), frequency.getOrDefault(prepareMessage.getBlock(), 0) + 1);
-        });
-
-        // Only one value (if any, thus the optional) will have a frequency
-        // greater than or equal to the quorum size
-        return frequency.entrySet().stream().filter((Map.Entry<String, Integer> entry) -> {
-            return entry.getValue() >= quorumSize;
-        }).map((Map.Entry<String, Integer> entry) -> {
-            return entry.getKey();
-        }).findFirst();
+        return quorumDigest(instance, round);
     }
 
     /**
@@ -116,23 +162,24 @@ public class MessageBucket {
      *
      * @param instance instance
      * @param round round
-     * @return Optional<String> - Empty if no quorum, otherwise value of the quorum
+     * @return Optional<String> - Empty if no quorum, otherwise block digest of the quorum
      */
     public Optional<String> hasValidCommitQuorum(int instance, int round) {
-        // Create mapping of value to frequency
-        HashMap<String, Integer> frequency = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((message) -> {
-            CommitMessage commitMessage = message.deserializeCommitMessage();
-            frequency.put(commitMessage.getBlock(), frequency.getOrDefault(commitMessage.getBlock(), 0) + 1);
-        });
+        return quorumDigest(instance, round);
+    }
 
-        // Only one value (if any, thus the optional) will have a frequency
-        // greater than or equal to the quorum size
-        return frequency.entrySet().stream().filter((Map.Entry<String, Integer> entry) -> {
-            return entry.getValue() >= quorumSize;
-        }).map((Map.Entry<String, Integer> entry) -> {
-            return entry.getKey();
-        }).findFirst();
+    /**
+     * Only one digest (if any, thus the optional) can be sent by a quorum, its count is kept as messages are added
+     *
+     * @param instance instance
+     * @param round round
+     * @return Optional<String> - Empty if no quorum, otherwise block digest of the quorum
+     */
+    private Optional<String> quorumDigest(int instance, int round) {
+        Map<Integer, RoundMessages> rounds = bucket.get(instance);
+        if (rounds == null || rounds.get(round) == null)
+            return Optional.empty();
+        return rounds.get(round).getQuorumDigest();
     }
 
     /**
@@ -140,25 +187,23 @@ public class MessageBucket {
      *
      * @param instance instance
      * @param currentRound currentRound
-     * @return Optional<RoundChangeMessage> - The message with the lowest prepared round of any Round Change message in the set
+     * @return Optional<Integer> - rmin, the lowest round of any Round Change message in the set
      */
-    public Optional<RoundChangeMessage> hasCorrectRoundChangeInSet(int instance, int currentRound) {
+    public Optional<Integer> hasCorrectRoundChangeInSet(int instance, int currentRound) {
         List<ConsensusMessage> set = new ArrayList<>();
         // Filters all the rounds that are greater than currentRound
         // Adds all Round Change messages that have a round greater than currentRound
         Stream<Integer> roundSet = bucket.get(instance).keySet().stream().filter(r -> r > currentRound);
         roundSet.forEach((integer -> {
-            bucket.get(instance).get(integer).forEach(((s, consensusMessage) -> set.add(consensusMessage)));
+            set.addAll(bucket.get(instance).get(integer).messages.values());
         }));
 
-        // Checks if the set size is greater than f+1
-        if (set.size() < existsCorrectSet)
+        // Checks if the set has messages of at least f+1 nodes, a node may have sent one for several rounds
+        if (set.stream().map(ConsensusMessage::getSenderId).distinct().count() < existsCorrectSet)
             return Optional.empty();
 
-        // Returns the lowest prepared round of any Round Change message in the set
-        return set.stream().min(
-                Comparator.comparingInt(c -> c.deserializeRoundChangeMessage().getPreparedRound())
-        ).map(ConsensusMessage::deserializeRoundChangeMessage);
+        // Returns the lowest round of any Round Change message in the set
+        return set.stream().map(ConsensusMessage::getRound).min(Integer::compare);
     }
 
     /**
@@ -169,10 +214,11 @@ public class MessageBucket {
      * @return Optional<RoundChangeMessage> - The message with the highest prepared round of any Round Change message in the quorum
      */
     public Optional<RoundChangeMessage> hasValidRoundChangeQuorum(int instance, int round) {
-        if (bucket.get(instance).get(round) == null || bucket.get(instance).get(round).size() < quorumSize)
+        Map<String, ConsensusMessage> messages = messagesOf(instance, round);
+        if (messages == null || messages.size() < quorumSize)
             return Optional.empty();
 
-        return bucket.get(instance).get(round).values().stream().max(
+        return messages.values().stream().max(
                 Comparator.comparingInt(c -> c.deserializeRoundChangeMessage().getPreparedRound())
         ).map(ConsensusMessage::deserializeRoundChangeMessage);
     }
@@ -188,7 +234,7 @@ public class MessageBucket {
     public Optional<RoundChangeMessage> highestPrepared(int instance, int round){
         RoundChangeMessage highestRoundChangeMessage = null;
         int highestPreparedRound = -1;
-        for (ConsensusMessage message : bucket.get(instance).get(round).values()) {
+        for (ConsensusMessage message : messagesOf(instance, round).values()) {
             RoundChangeMessage roundChangeMessage = message.deserializeRoundChangeMessage();
             if (roundChangeMessage.getPreparedRound() > highestPreparedRound)
                 highestRoundChangeMessage = roundChangeMessage;
@@ -205,15 +251,77 @@ public class MessageBucket {
      * @return boolean - whether there is a prepared justification
      */
     public boolean nonePreparedJustification(int instance, int round) {
-        if (bucket.get(instance).get(round) == null)
+        Map<String, ConsensusMessage> messages = messagesOf(instance, round);
+        if (messages == null)
             return false;
-        return bucket.get(instance).get(round).values().stream().noneMatch(message -> {
+        return messages.values().stream().noneMatch(message -> {
             RoundChangeMessage roundChangeMessage = message.deserializeRoundChangeMessage();
             return (roundChangeMessage != null && !Objects.equals(roundChangeMessage.getPreparedValue(), ""));
         });
     }
 
     public Map<String, ConsensusMessage> getMessages(int instance, int round) {
-        return bucket.get(instance).get(round);
+        return messagesOf(instance, round);
+    }
+
+    /**
+     * Drops the messages of every instance up to (and including) the given one
+     *
+     * @param instance last instance to drop
+     */
+    public void prune(int instance) {
+        bucket.keySet().removeIf(i -> i <= instance);
+    }
+
+    /**
+     * @return int - number of instances with messages in the bucket
+     */
+    public int getInstanceCount() {
+        return bucket.size();
+    }
+
+    /**
+     * @return long - rough estimate of the heap used by the stored messages, in bytes
+     */
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for (Map<Integer, RoundMessages> rounds : bucket.values()) {
+            for (RoundMessages messages : rounds.values()) {
+                for (ConsensusMessage message : messages.messages.values())
+                    bytes += estimateSize(message);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Rough estimate of the heap used by a message, dominated by its payload and signature
+     *
+     * @param message message to measure
+     * @return long - estimated size in bytes
+     */
+    static long estimateSize(ConsensusMessage message) {
+        long bytes = OBJECT_OVERHEAD
+                + (message.getMessage() == null ? 0 : message.getMessage().length())
+                + (message.getSignature() == null ? 0 : message.getSignature().length);
+        if (message.getJustification() != null)
+            bytes += estimateSize(message.getJustification());
+        return bytes;
+    }
+
+    /**
+     * Rough estimate of the heap used by a quorum certificate, its payload is only stored once
+     *
+     * @param certificate certificate to measure
+     * @return long - estimated size in bytes
+     */
+    static long estimateSize(QuorumCertificate certificate) {
+        long bytes = OBJECT_OVERHEAD + (certificate.getValue() == null ? 0 : certificate.getValue().length());
+        for (QuorumCertificate.Vote vote : certificate.getVotes()) {
+            bytes += OBJECT_OVERHEAD + vote.getSenderId().length()
+                    + (vote.getReplyTo() == null ? 0 : vote.getReplyTo().length())
+                    + (vote.getSignature() == null ? 0 : vote.getSignature().length);
+        }
+        return bytes;
     }
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+
+// Committed (sender, nonce) pairs, to reject replayed transactions in constant time and bounded memory
+// Clients number their transfers, so each sender has the highest nonce it committed and a window with a bit
+// for each of the WINDOW nonces below it. Nonces that slide out of a window go into a Bloom filter shared
+// by every sender: it may take an old nonce never committed for a repeated one, never the opposite.
+// Every replica commits the same pairs in the same order, so they all take the same decisions
+public class NonceIndex {
+
+    /** Nonces kept exactly below the highest of a sender, a bit each */
+    public static final int WINDOW = Long.SIZE;
+    /** Bits of the Bloom filter, 128 KiB */
+    public static final int DEFAULT_FILTER_BITS = 1 << 20;
+    /** Bits set in the Bloom filter for each pair */
+    private static final int HASHES = 5;
+
+    /** Highest nonce of a sender and the ones committed right below it */
+    private static class Window {
+        private int highest;
+        /** Bit i is set if nonce highest - i was committed */
+        private long bits;
+
+        private Window(int highest, long bits) {
+            this.highest = highest;
+            this.bits = bits;
+        }
+    }
+
+    /** Sender -> Its window */
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+    /** Bloom filter of the nonces older than the windows */
+    private long[] filter;
+
+    public NonceIndex() {
+        this(DEFAULT_FILTER_BITS);
+    }
+
+    /**
+     * @param filterBits bits of the Bloom filter, rounded up to a multiple of 64
+     */
+    public NonceIndex(int filterBits) {
+        this.filter = new long[Math.max(1, (filterBits + Long.SIZE - 1) / Long.SIZE)];
+    }
+
+    /**
+     * @param transaction transaction to check
+     * @return boolean - whether a transaction of the same sender and nonce may have been committed
+     */
+    public boolean contains(Transaction transaction) {
+        return contains(transaction.getSender(), transaction.getNonce());
+    }
+
+    /**
+     * @param sender sender of the transaction
+     * @param nonce nonce of the transaction
+     * @return boolean - whether the pair may have been committed, exact unless the nonce is older than the window
+     */
+    public synchronized boolean contains(String sender, int nonce) {
+        Window window = windows.get(sender);
+        if (window == null)
+            return false;
+        long offset = (long) window.highest - nonce;
+        if (offset < 0)
+            return false;
+        if (offset < WINDOW)
+            return (window.bits & (1L << offset)) != 0;
+        return mightContain(sender, nonce);
+    }
+
+    /**
+     * Records a committed transaction
+     *
+     * @param transaction committed transaction
+     */
+    public void add(Transaction transaction) {
+        add(transaction.getSender(), transaction.getNonce());
+    }
+
+    /**
+     * Records a committed pair, the nonces pushed out of the window of the sender go to the filter
+     *
+     * @param sender sender of the transaction
+     * @param nonce nonce of the transaction
+     */
+    public synchronized void add(String sender, int nonce) {
+        Window window = windows.get(sender);
+        if (window == null) {
+            windows.put(sender, new Window(nonce, 1L));
+            return;
+        }
+
+        long offset = (long) window.highest - nonce;
+        if (offset >= WINDOW) {
+            put(sender, nonce);
+        } else if (offset >= 0) {
+            window.bits |= 1L << offset;
+        } else {
+            // The window moves up, its oldest nonces fall out of it
+            long shift = -offset;
+            long evicted = shift >= WINDOW ? window.bits : window.bits & (-1L << (WINDOW - shift));
+            while (evicted != 0) {
+                int bit = Long.numberOfTrailingZeros(evicted);
+                put(sender, window.highest - bit);
+                evicted &= evicted - 1;
+            }
+            window.bits = (shift >= WINDOW ? 0 : window.bits << shift) | 1L;
+            window.highest = nonce;
+        }
+    }
+
+    /**
+     * @param sender sender of the transactions
+     * @return OptionalInt - highest nonce committed by the sender, empty if it has none
+     */
+    public synchronized OptionalInt getHighest(String sender) {
+        Window window = windows.get(sender);
+        return window == null ? OptionalInt.empty() : OptionalInt.of(window.highest);
+    }
+
+    /**
+     * @return NonceIndex - independent copy, e.g. for a snapshot
+     */
+    public synchronized NonceIndex copy() {
+        NonceIndex copy = new NonceIndex(filter.length * Long.SIZE);
+        windows.forEach((sender, window) -> copy.windows.put(sender, new Window(window.highest, window.bits)));
+        System.arraycopy(filter, 0, copy.filter, 0, filter.length);
+        return copy;
+    }
+
+    /**
+     * Replaces every pair with the ones of another index, its filter size included
+     *
+     * @param other index to copy, e.g. of a snapshot
+     */
+    public void restore(NonceIndex other) {
+        NonceIndex copy = other.copy();
+        synchronized (this) {
+            windows.clear();
+            windows.putAll(copy.windows);
+            filter = copy.filter;
+        }
+    }
+
+    /**
+     * @param out where the index is written
+     * @throws IOException if it can't be written
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(windows.size());
+        for (Map.Entry<String, Window> window : windows.entrySet()) {
+            out.writeUTF(window.getKey());
+            out.writeInt(window.getValue().highest);
+            out.writeLong(window.getValue().bits);
+        }
+        out.writeInt(filter.length);
+        for (long word : filter)
+            out.writeLong(word);
+    }
+
+    /**
+     * @param in where the index is read from
+     * @return NonceIndex - index read
+     * @throws IOException if it can't be read
+     */
+    public static NonceIndex readFrom(DataInput in) throws IOException {
+        int senders = in.readInt();
+        Map<String, Window> windows = new LinkedHashMap<>();
+        for (int i = 0; i < senders; i++)
+            windows.put(in.readUTF(), new Window(in.readInt(), in.readLong()));
+        int words = in.readInt();
+        if (words <= 0 || words > Integer.MAX_VALUE / Long.SIZE)
+            throw new IOException("Invalid nonce filter size " + words);
+        NonceIndex index = new NonceIndex(words * Long.SIZE);
+        index.windows.putAll(windows);
+        for (int i = 0; i < words; i++)
+            index.filter[i] = in.readLong();
+        return index;
+    }
+
+    private void put(String sender, int nonce) {
+        long hash = hash(sender, nonce);
+        int bits = filter.length * Long.SIZE;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = position(hash, i, bits);
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(String sender, int nonce) {
+        long hash = hash(sender, nonce);
+        int bits = filter.length * Long.SIZE;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = position(hash, i, bits);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Positions of a pair come from two halves of a single hash (Kirsch-Mitzenmacher)
+     */
+    private static int position(long hash, int i, int bits) {
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        return Math.floorMod(first + i * second, bits);
+    }
+
+    /**
+     * String.hashCode is fixed by the language, so every replica sets the same bits
+     */
+    private static long hash(String sender, int nonce) {
+        long hash = ((long) sender.hashCode() << 32) ^ (nonce & 0xFFFFFFFFL);
+        // SplitMix64 finalizer
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+}
@@ -0,0 +1,107 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+// State of a replica right after a decided instance was applied: everything needed to carry on
+// from the blocks after it. Copied when it is taken, encoded later away from the consensus
+public class StateSnapshot {
+
+    private static final int VERSION = 2;
+
+    // Last consensus instance applied
+    private final int instance;
+    // Hash of the last block of the ledger
+    private final String lastBlockHash;
+    // Author of the last block, led the last instance
+    private final String lastLeaderId;
+    // Account id -> Balance, in units
+    private final Map<String, Long> balances;
+    // (sender, nonce) of the committed transactions
+    private final NonceIndex nonces;
+
+    public StateSnapshot(int instance, String lastBlockHash, String lastLeaderId, Map<String, Long> balances,
+            NonceIndex nonces) {
+        this.instance = instance;
+        this.lastBlockHash = lastBlockHash;
+        this.lastLeaderId = lastLeaderId;
+        this.balances = balances;
+        this.nonces = nonces;
+    }
+
+    public int getInstance() {
+        return instance;
+    }
+
+    public String getLastBlockHash() {
+        return lastBlockHash;
+    }
+
+    public String getLastLeaderId() {
+        return lastLeaderId;
+    }
+
+    public Map<String, Long> getBalances() {
+        return balances;
+    }
+
+    public NonceIndex getNonces() {
+        return nonces;
+    }
+
+    /**
+     * @return byte[] - compact binary encoding of the snapshot
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(instance);
+            out.writeUTF(lastBlockHash);
+            out.writeUTF(lastLeaderId);
+            out.writeInt(balances.size());
+            for (Map.Entry<String, Long> balance : balances.entrySet()) {
+                out.writeUTF(balance.getKey());
+                out.writeLong(balance.getValue());
+            }
+            nonces.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param bytes encoded snapshot
+     * @return StateSnapshot - decoded snapshot
+     */
+    public static StateSnapshot fromBytes(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != VERSION)
+                throw new HDSSException(ErrorMessage.CannotReadStorage);
+            int instance = in.readInt();
+            String lastBlockHash = in.readUTF();
+            String lastLeaderId = in.readUTF();
+            int accounts = in.readInt();
+            Map<String, Long> balances = new LinkedHashMap<>();
+            for (int i = 0; i < accounts; i++)
+                balances.put(in.readUTF(), in.readLong());
+            NonceIndex nonces = NonceIndex.readFrom(in);
+            return new StateSnapshot(instance, lastBlockHash, lastLeaderId, balances, nonces);
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotReadStorage);
+        }
+    }
+}
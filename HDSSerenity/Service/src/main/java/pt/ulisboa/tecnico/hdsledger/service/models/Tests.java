@@ -1,6 +1,5 @@
 package pt.ulisboa.tecnico.hdsledger.service.models;
 
-import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 
@@ -9,12 +8,15 @@ import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
 
 public class Tests {
 
+    /** Transactions in the made up blocks */
+    private static final int BLOCK_SIZE = 2;
+
     private static Block createNewBlock(String nodeId) throws Exception{
         Block block = new Block();
         Random random = new Random();
 
         // Add to block different made up transactions
-        for (int i = 0; i < block.getMaxBlockSize(); i++) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
             int randomInt = random.nextInt();
             String signable = "20" + "21" + "100" + randomInt;
             Transaction transaction = new Transaction(
@@ -37,7 +39,7 @@ public class Tests {
         Block block = new Block();
 
         // Add to block different made up transactions
-        for (int i = 0; i < block.getMaxBlockSize(); i++) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
             String signable = "20" + "21" + "100" + nonce;
             Transaction transaction = new Transaction(
                     "20",
@@ -135,15 +137,15 @@ public class Tests {
      * @param behavior type of behaviour
      * @param nodeId attacking node (only has access to its private key)
      * @param instance id of the current instance
-     * @param nonces list of nonces
+     * @param nonces committed transactions
      * @return Block - the byzantine block
      * @throws Exception exception
      */
-    public static Optional<Block> nodeReplayAttack(ProcessConfig.Behavior behavior, String nodeId, int instance, List<Integer> nonces) throws Exception{
+    public static Optional<Block> nodeReplayAttack(ProcessConfig.Behavior behavior, String nodeId, int instance, NonceIndex nonces) throws Exception{
         if (behavior == ProcessConfig.Behavior.NODE_REPLAY_ATTACK) {
             // Here the attacker sends a replay attack on the second instance
-            if (instance == 2 && nonces.size() > 0) {
-                return Optional.of(Tests.createNewBlockWithNonce(nodeId, nonces.get(0)));
+            if (instance == 2 && nonces.getHighest("20").isPresent()) {
+                return Optional.of(Tests.createNewBlockWithNonce(nodeId, nonces.getHighest("20").getAsInt()));
             }
         }
         return Optional.empty();
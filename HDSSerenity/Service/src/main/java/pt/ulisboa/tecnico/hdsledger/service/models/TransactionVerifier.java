@@ -0,0 +1,66 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
+
+// Verifies the signatures of many transactions at once, split across the workers of a ForkJoin pool
+// Only signatures are checked here: they don't depend on each other, unlike the nonce and balance
+// checks, which the caller runs afterwards in the order of the transactions
+public class TransactionVerifier {
+
+    /** Workers that verify the signatures */
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism number of signatures verified at the same time
+     */
+    public TransactionVerifier(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Verifies if a transaction is authentic, i.e. its signature is valid
+     * A signature that can't be verified (e.g. unknown sender) is not valid
+     *
+     * @param transaction the transaction to be verified
+     * @return boolean - whether the transaction is authentic
+     */
+    public static boolean isAuthentic(Transaction transaction) {
+        try {
+            return RSASignature.verifySign(transaction.getSignable(), transaction.getSignature(), transaction.getSender());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param transactions transactions to verify
+     * @return boolean[] - whether each transaction is authentic, in the same order
+     */
+    public boolean[] verify(List<Transaction> transactions) {
+        boolean[] authentic = new boolean[transactions.size()];
+        // Not worth handing a single signature to the pool
+        if (transactions.size() == 1) {
+            authentic[0] = isAuthentic(transactions.get(0));
+            return authentic;
+        }
+        pool.submit(() -> IntStream.range(0, authentic.length).parallel()
+                .forEach(i -> authentic[i] = isAuthentic(transactions.get(i)))).join();
+        return authentic;
+    }
+
+    /**
+     * Stops at the first transaction found not authentic
+     *
+     * @param transactions transactions to verify
+     * @return boolean - whether every transaction is authentic
+     */
+    public boolean verifyAll(List<Transaction> transactions) {
+        if (transactions.size() == 1)
+            return isAuthentic(transactions.get(0));
+        return pool.submit(() -> transactions.parallelStream().allMatch(TransactionVerifier::isAuthentic)).join();
+    }
+}
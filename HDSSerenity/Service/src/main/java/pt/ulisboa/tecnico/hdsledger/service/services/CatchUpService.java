@@ -0,0 +1,247 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+import pt.ulisboa.tecnico.hdsledger.communication.CatchUpReplyMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.CatchUpRequestMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.Link;
+import pt.ulisboa.tecnico.hdsledger.communication.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.service.models.DecidedBlock;
+import pt.ulisboa.tecnico.hdsledger.storage.SegmentLog;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.HashedWheelTimer;
+import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
+
+// State transfer for a node that fell behind: instead of taking part in the instances it missed, it fetches
+// their decided blocks, with the commit quorums that decided them, straight from the block logs of the others
+// A node is behind once f + 1 nodes (at least one correct) sent messages for instances past its pipeline window.
+// The missing instances are split in ranges, requested from different nodes at once; every node answers with
+// as many records as fit in a datagram, so catching up costs transfers rather than consensus round trips.
+// Requests, replies and their verification run on a thread of their own, away from the consensus
+public class CatchUpService {
+
+    private static final CustomLogger LOGGER = new CustomLogger(CatchUpService.class.getName());
+
+    /** Time a node must stay behind before catching up, it may only be slightly late */
+    private static final long CATCH_UP_DELAY_MILLIS = 1000;
+    /** Instances asked from the same node */
+    private static final int RANGE_INSTANCES = 16;
+    /** Most instances served for a single request */
+    private static final int MAX_SERVED_INSTANCES = 256;
+    /** Records of a reply, in bytes, it must fit in a datagram (a single record is always sent) */
+    private static final int MAX_REPLY_BYTES = 24 * 1024;
+
+    private final ProcessConfig config;
+    /** Other nodes, that can be asked for blocks */
+    private final List<String> peerIds;
+    /** Nodes that may be faulty */
+    private final int faulty;
+    private final Link link;
+    private final SegmentLog blockLog;
+    /** Last instance applied to the ledger */
+    private final IntSupplier lastDecided;
+    private final int pipelineWindow;
+    /** Checks the commit quorum of a fetched record */
+    private final Predicate<DecidedBlock> verifier;
+    /** Applies the verified records, in instance order */
+    private final Consumer<List<DecidedBlock>> deliverer;
+    /** Node id -> Highest instance it sent a consensus message for */
+    private final Map<String, Integer> highestInstances = new ConcurrentHashMap<>();
+    /** Serves requests and verifies replies, one at a time */
+    private final ExecutorService executor;
+    /** Fires once the node stayed behind long enough, then while it still is */
+    private final HashedWheelTimer.Timeout timeout;
+    /** Whether the timeout is armed */
+    private volatile boolean scheduled = false;
+    /** Moves the ranges to other nodes on every attempt, a node that does not answer is skipped next time */
+    private int attempt = 0;
+
+    public CatchUpService(ProcessConfig config, ProcessConfig[] nodesConfig, Link link, SegmentLog blockLog,
+            IntSupplier lastDecided, int pipelineWindow, Predicate<DecidedBlock> verifier,
+            Consumer<List<DecidedBlock>> deliverer) {
+        this.config = config;
+        this.peerIds = Arrays.stream(nodesConfig).map(ProcessConfig::getId)
+                .filter(id -> !id.equals(config.getId())).sorted().toList();
+        this.faulty = (nodesConfig.length - 1) / 3;
+        this.link = link;
+        this.blockLog = blockLog;
+        this.lastDecided = lastDecided;
+        this.pipelineWindow = pipelineWindow;
+        this.verifier = verifier;
+        this.deliverer = deliverer;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catch-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeout = HashedWheelTimer.shared().newTimeout(() -> executor.execute(this::catchUp));
+    }
+
+    /**
+     * Records the instance of a consensus message of another node, starts the countdown to catch up
+     * if f + 1 nodes are now past the pipeline window of this node
+     * Only authenticated consensus messages count: the Link keeps the type of a forged (INVALID) or
+     * repeated (IGNORE) message apart, and a forged one could claim any instance
+     *
+     * @param message message received from another node
+     */
+    public void observe(ConsensusMessage message) {
+        switch (message.getType()) {
+            case PRE_PREPARE, PREPARE, COMMIT, ROUND_CHANGE -> {
+            }
+            default -> {
+                return;
+            }
+        }
+        if (!peerIds.contains(message.getSenderId()))
+            return;
+        highestInstances.merge(message.getSenderId(), message.getConsensusInstance(), Math::max);
+        if (!scheduled && isBehind()) {
+            scheduled = true;
+            timeout.reschedule(CATCH_UP_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * @return int - highest instance that f + 1 nodes reached, at least one correct node is there
+     */
+    private int getTargetInstance() {
+        List<Integer> instances = highestInstances.values().stream().sorted(Comparator.reverseOrder()).toList();
+        return instances.size() > faulty ? instances.get(faulty) : 0;
+    }
+
+    private boolean isBehind() {
+        return getTargetInstance() > lastDecided.getAsInt() + pipelineWindow;
+    }
+
+    /**
+     * Asks the other nodes for the missing instances, a range per node, and checks again later
+     * Runs on the catch-up thread
+     */
+    private void catchUp() {
+        if (!isBehind()) {
+            scheduled = false;
+            return;
+        }
+
+        // At most a range per node on each attempt, however far behind: the instances after them are asked once these are applied
+        int first = lastDecided.getAsInt() + 1;
+        int last = Math.min(getTargetInstance(), first + peerIds.size() * RANGE_INSTANCES - 1);
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Behind the other nodes, fetching Consensus Instances {1} to {2}",
+                config.getId(), first, last));
+
+        int range = 0;
+        for (int from = first; from <= last; from += RANGE_INSTANCES, range++) {
+            int to = Math.min(last, from + RANGE_INSTANCES - 1);
+            String peerId = peerIds.get((range + attempt) % peerIds.size());
+            ConsensusMessage request = new ConsensusMessageBuilder(config.getId(), Message.Type.CATCH_UP_REQUEST)
+                    .setMessage(new CatchUpRequestMessage(from, to).toJson())
+                    .build();
+            link.send(peerId, request);
+        }
+        attempt++;
+
+        // Replies may be lost or never come, the node checks again until it is no longer behind
+        timeout.reschedule(CATCH_UP_DELAY_MILLIS);
+    }
+
+    /**
+     * Handles a catch-up request or reply on the catch-up thread
+     *
+     * @param message CATCH_UP_REQUEST or CATCH_UP_REPLY
+     */
+    public void submit(ConsensusMessage message) {
+        executor.execute(() -> {
+            try {
+                if (message.getType() == Message.Type.CATCH_UP_REQUEST)
+                    serve(message);
+                else
+                    receive(message);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Invalid {1} message from {2}: {3}",
+                        config.getId(), message.getType(), message.getSenderId(), e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Sends the stored records of the requested range, split in replies that fit in a datagram
+     *
+     * @param message request of another node
+     */
+    private void serve(ConsensusMessage message) {
+        CatchUpRequestMessage request = message.deserializeCatchUpRequestMessage();
+        int first = Math.max(1, request.getFirstInstance());
+        int last = Math.min(Math.min(request.getLastInstance(), blockLog.getLastInstance()),
+                first + MAX_SERVED_INSTANCES - 1);
+
+        List<String> records = new ArrayList<>();
+        int bytes = 0;
+        for (int instance = first; instance <= last; instance++) {
+            byte[] record = blockLog.read(instance);
+            if (record == null)
+                break;
+            if (!records.isEmpty() && bytes + record.length > MAX_REPLY_BYTES) {
+                reply(message.getSenderId(), records);
+                records = new ArrayList<>();
+                bytes = 0;
+            }
+            records.add(new String(record, StandardCharsets.UTF_8));
+            bytes += record.length;
+        }
+        if (!records.isEmpty())
+            reply(message.getSenderId(), records);
+
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Sent Consensus Instances {1} to {2} to {3}",
+                config.getId(), first, last, message.getSenderId()));
+    }
+
+    private void reply(String nodeId, List<String> records) {
+        ConsensusMessage reply = new ConsensusMessageBuilder(config.getId(), Message.Type.CATCH_UP_REPLY)
+                .setMessage(new CatchUpReplyMessage(records).toJson())
+                .build();
+        link.send(nodeId, reply);
+    }
+
+    /**
+     * Verifies the records of a reply (their commit quorums, in parallel) and applies the ones not applied yet
+     * Records are only trusted for their quorum, a faulty node can only send fewer of them
+     *
+     * @param message reply of another node
+     */
+    private void receive(ConsensusMessage message) {
+        int applied = lastDecided.getAsInt();
+        List<DecidedBlock> decidedBlocks = message.deserializeCatchUpReplyMessage().getDecidedBlocks().stream()
+                .map(DecidedBlock::fromJson)
+                .filter(Objects::nonNull)
+                .filter(decidedBlock -> decidedBlock.getConsensusInstance() > applied)
+                .toList();
+
+        List<DecidedBlock> verified = decidedBlocks.parallelStream()
+                .filter(verifier)
+                .sorted(Comparator.comparingInt(DecidedBlock::getConsensusInstance))
+                .toList();
+        if (verified.isEmpty())
+            return;
+
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Fetched {1} Consensus Instances from {2}",
+                config.getId(), verified.size(), message.getSenderId()));
+        deliverer.accept(verified);
+    }
+}
@@ -120,7 +120,7 @@ public class ClientService implements UDPService {
                         Message message = link.receive();
 
                         // Separate thread to handle each message
-                        new Thread(() -> {
+                        Runnable handler = () -> {
                             switch (message.getType()) {
                                 case TRANSFER ->
                                 {
@@ -161,7 +161,13 @@ public class ClientService implements UDPService {
                                                     config.getId(), message.getSenderId()));
                             }
 
-                        }).start();
+                        };
+
+                        // Transfers change the consensus state, in EVENT_LOOP mode the event loop handles them
+                        if (message.getType() == Message.Type.TRANSFER)
+                            nodeService.dispatch(handler);
+                        else
+                            new Thread(handler).start();
                     }
                 } catch (IOException | ClassNotFoundException e) {
                     e.printStackTrace();
@@ -0,0 +1,93 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.text.MessageFormat;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+
+// Runs the consensus upon rules on a single thread
+// Received messages and timer events are queued by many threads and handled one at a time,
+// in the order they were queued (timer events that find the queue full go ahead of it),
+// so the state of the instances is never contended.
+// Signing, verifying and sending stay on the pools of the Link
+public class ConsensusEventLoop {
+
+    private static final CustomLogger LOGGER = new CustomLogger(ConsensusEventLoop.class.getName());
+
+    /** Events waiting to be handled, producers block when it is full */
+    private final BlockingQueue<Runnable> events;
+    /** Events that can't wait for space (timer events), handled before the next queued event */
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+    /** Thread that handles the events */
+    private final Thread thread;
+
+    public ConsensusEventLoop(String name, int capacity) {
+        this.events = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.thread = new Thread(this::run, "consensus-loop-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues an event, waiting for space if the queue is full
+     * Events queued by the loop itself run right away, the loop can't wait for its own queue
+     *
+     * @param event event to handle
+     */
+    public void submit(Runnable event) {
+        if (Thread.currentThread() == thread) {
+            event.run();
+            return;
+        }
+
+        try {
+            events.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues an event without waiting, for threads that must never block (e.g. the timer thread)
+     * If the queue is full the event goes past its capacity, the loop is busy and will take it soon
+     *
+     * @param event event to handle
+     */
+    public void offer(Runnable event) {
+        if (events.offer(event))
+            return;
+
+        overflow.add(event);
+        // Wakes the loop in case it emptied the queue right after the event missed it
+        events.offer(() -> {});
+    }
+
+    public int getPending() {
+        return events.size() + overflow.size();
+    }
+
+    private void run() {
+        while (true) {
+            Runnable event = overflow.poll();
+            if (event == null) {
+                try {
+                    event = events.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            // A failed event must not stop the loop
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Event failed: {1}",
+                        thread.getName(), e.getMessage()));
+            }
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package pt.ulisboa.tecnico.hdsledger.service.services;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 
 import pt.ulisboa.tecnico.hdsledger.communication.*;
 import pt.ulisboa.tecnico.hdsledger.communication.builder.ConsensusMessageBuilder;
 import pt.ulisboa.tecnico.hdsledger.service.Node;
 import pt.ulisboa.tecnico.hdsledger.service.models.*;
+import pt.ulisboa.tecnico.hdsledger.storage.SegmentLog;
+import pt.ulisboa.tecnico.hdsledger.storage.SnapshotStore;
 import pt.ulisboa.tecnico.hdsledger.utilities.Colors;
 import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.HashedWheelTimer;
 import pt.ulisboa.tecnico.hdsledger.utilities.ProcessConfig;
 import pt.ulisboa.tecnico.hdsledger.utilities.RSASignature;
 
@@ -46,25 +55,55 @@ public class NodeService implements UDPService {
     private final Map<Integer, InstanceInfo> instanceInfo = new ConcurrentHashMap<>();
     /** Current consensus instance */
     private final AtomicInteger consensusInstance = new AtomicInteger(0);
-    /** Last decided consensus instance */
+    /** Last decided consensus instance (already applied to the ledger) */
     private final AtomicInteger lastDecidedConsensusInstance = new AtomicInteger(0);
-    /** Timer to trigger round changes */
-    private Timer timerConsensus;
-
-    /** Consensus should take max timerMilliseconds */
-    private final int timerMillis = 5000;
-    
-    /** Consensus instance to which the timer is counting */
-    private int timerInstance = -1;
+    /** Maximum number of consensus instances running at the same time */
+    private final int pipelineWindow;
+    /** Decided blocks waiting for the previous instances to be applied */
+    private final TreeMap<Integer, Block> decidedBlocks = new TreeMap<>();
+    /** Consensus instance -> Digest -> Block proposed by a leader, PREPARE and COMMIT only carry the digest */
+    private final Map<Integer, Map<String, Block>> proposedBlocks = new ConcurrentHashMap<>();
+    /** Consensus instance -> Digest decided before its block was received */
+    private final Map<Integer, String> undeliveredDecisions = new ConcurrentHashMap<>();
+    /** Consensus instance -> Transactions proposed in it, until it is applied */
+    private final Map<Integer, List<Transaction>> reservedTransactions = new ConcurrentHashMap<>();
+    /** Number of decided instances that keep all their messages, older ones only keep a commit certificate */
+    private final int retainedInstances;
+    /** Highest consensus instance whose messages were dropped */
+    private volatile int prunedConsensusInstance = 0;
+    /** Consensus instance -> Round and value of the justifications already verified for it */
+    private final Map<Integer, Set<String>> verifiedJustifications = new ConcurrentHashMap<>();
+    /** Consensus instance -> Commit quorum that decided it */
+    private final Map<Integer, CommitCertificate> commitCertificates = new ConcurrentHashMap<>();
+    /** Durable log of the decided blocks, the ledger is rebuilt from it on startup */
+    private final SegmentLog blockLog;
+    /** Snapshots of the state, a restarted node only replays the blocks decided after the newest one */
+    private final SnapshotStore snapshots;
+    /** Number of decided instances between two snapshots, 0 if they are disabled */
+    private final int snapshotInterval;
+    /** Round timers of the running consensus instances, trigger round changes */
+    private final RoundTimerService roundTimers;
+    /** Fetches the decided blocks this node missed from the other nodes */
+    private final CatchUpService catchUp;
     /** Ledger that stores all blocks */
     private ArrayList<Block> ledger = new ArrayList<Block>();
+    /** Hash of the last block of the ledger, the next block is chained to it */
+    private volatile String lastBlockHash = Block.GENESIS_HASH;
     /** Client Balances */
-    private final Map<String, Double> clientsBalance = new ConcurrentHashMap<String, Double>();
-    /** Transfer Requests Queue */
-    private final List<String> transactionRequests = new LinkedList<>();
-
-    // Transactions nonce's that have been committed
-    private final List<Integer> completedTransfers = new LinkedList<>();
+    private final AccountState accounts;
+    /** Transfer requests waiting to be added to a block */
+    private final Mempool mempool;
+    /** Decides when the pending transactions are cut into a block */
+    private final BlockCutter blockCutter;
+    /** Verifies the signatures of the transactions of a block in parallel */
+    private final TransactionVerifier transactionVerifier;
+    /** Handles every consensus event in EVENT_LOOP mode, null in THREADED mode */
+    private final ConsensusEventLoop eventLoop;
+    /** Handles the timer events in THREADED mode, null in EVENT_LOOP mode */
+    private final ExecutorService timerEvents;
+
+    /** (sender, nonce) of the committed transactions */
+    private final NonceIndex completedTransfers = new NonceIndex();
 
     public NodeService(Link link, Link clientLink, ProcessConfig config,
             ProcessConfig leaderConfig, ProcessConfig[] nodesConfig, ProcessConfig[] clientConfigs) {
@@ -74,6 +113,34 @@ public class NodeService implements UDPService {
         this.config = config;
         this.leaderConfig = leaderConfig;
         this.nodesConfig = nodesConfig;
+        this.pipelineWindow = Math.max(1, config.getPipelineWindow());
+        this.retainedInstances = Math.max(0, config.getRetainedInstances());
+        this.mempool = new Mempool(config.getMempoolCapacity(),
+                evicted -> sendFailedTResponseMessage(evicted, TResponseMessage.Status.FAILED_FULL),
+                // No instance is 0, so the transactions of every running instance count
+                transaction -> isReserved(transaction, 0, false));
+        this.blockCutter = new BlockCutter(config.getMaxBlockTransactions(),
+                config.getMaxBlockBytes(), config.getMaxBlockLatencyMillis(), () -> runTimerEvent(() -> {
+                    try {
+                        startConsensus();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Could not cut a block: {1}",
+                                config.getId(), e.getMessage()));
+                    }
+                }));
+        this.transactionVerifier = new TransactionVerifier(config.getValidationThreads());
+        this.roundTimers = new RoundTimerService(HashedWheelTimer.shared(), config.getRoundTimeoutMillis(),
+                config.getMaxRoundTimeoutMillis(), (instance, round) -> runTimerEvent(() -> uponTimerExpiry(instance, round)));
+        this.eventLoop = config.getExecutionMode() == ProcessConfig.ExecutionMode.EVENT_LOOP
+                ? new ConsensusEventLoop(config.getId(), config.getEventLoopCapacity())
+                : null;
+        this.timerEvents = eventLoop == null
+                ? Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "timer-events-" + config.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
 
         //Only count nodes that are not clients
         this.prepareMessages = new MessageBucket(nodesConfig.length);
@@ -81,8 +148,18 @@ public class NodeService implements UDPService {
         this.roundChangeMessages = new MessageBucket(nodesConfig.length);
 
         // Update Map with clients IDs and respective balances
-        Arrays.stream(clientConfigs).forEach(client -> this.clientsBalance.put(client.getId(), 10D));
-        Arrays.stream(nodesConfig).forEach(node -> this.clientsBalance.put(node.getId(), 0D));
+        Map<String, Double> initialBalances = new LinkedHashMap<>();
+        Arrays.stream(clientConfigs).forEach(client -> initialBalances.put(client.getId(), 10D));
+        Arrays.stream(nodesConfig).forEach(node -> initialBalances.put(node.getId(), 0D));
+        this.accounts = new AccountState(initialBalances);
+
+        Path storage = Paths.get(config.getStorageDirectory(), config.getId());
+        this.blockLog = new SegmentLog(storage);
+        this.snapshots = new SnapshotStore(storage.resolve("snapshots"));
+        this.snapshotInterval = Math.max(0, config.getSnapshotInterval());
+        this.catchUp = new CatchUpService(config, nodesConfig, link, blockLog, lastDecidedConsensusInstance::get,
+                pipelineWindow, this::verifyDecidedBlock, this::deliverFetchedBlocks);
+        recoverLedger();
     }
 
     public ProcessConfig getConfig() {
@@ -97,10 +174,79 @@ public class NodeService implements UDPService {
         return this.ledger;
     }
 
+    /**
+     * Handles a received message: on the event loop in EVENT_LOOP mode,
+     * otherwise on a new thread
+     *
+     * @param handler handles the message
+     */
+    public void dispatch(Runnable handler) {
+        if (eventLoop != null)
+            eventLoop.submit(handler);
+        else
+            new Thread(handler).start();
+    }
+
+    /**
+     * Handles an event raised by another thread of the node (e.g. blocks fetched by the catch-up):
+     * on the event loop in EVENT_LOOP mode, otherwise on the calling thread
+     *
+     * @param event event to handle
+     */
+    public void runEvent(Runnable event) {
+        if (eventLoop != null)
+            eventLoop.submit(event);
+        else
+            event.run();
+    }
+
+    /**
+     * Handles an event of the shared timer without ever blocking its thread: on the event loop in
+     * EVENT_LOOP mode (queued even if the loop is full), otherwise on the thread of the timer events
+     *
+     * @param event event to handle
+     */
+    private void runTimerEvent(Runnable event) {
+        if (eventLoop != null)
+            eventLoop.offer(event);
+        else
+            timerEvents.execute(event);
+    }
+
+    private boolean isNode(String id) {
+        return Arrays.stream(nodesConfig).anyMatch(node -> node.getId().equals(id));
+    }
+
     private boolean isLeader(String id) {
         return this.leaderConfig.getId().equals(id);
     }
 
+    /**
+     * The leader rotates when the next instance starting a rotation is joined,
+     * its PRE-PREPARE comes from the next leader before that
+     *
+     * @param id node to check
+     * @param instance consensus instance of its PRE-PREPARE
+     * @return boolean - whether the node leads the instance
+     */
+    private boolean isLeaderOf(String id, int instance) {
+        if (instance == this.consensusInstance.get() + 1 && instance % 5 == 0)
+            return getNextLeaderId().equals(id);
+        return isLeader(id);
+    }
+
+    /**
+     * @return String - node with the id of the current leader + 1, wrapping around
+     */
+    private String getNextLeaderId() {
+        int currentLeaderId = Integer.parseInt(leaderConfig.getId());
+        if (currentLeaderId + 1 > Arrays.stream(nodesConfig)
+                .filter(processConfig -> Integer.parseInt(processConfig.getId()) < 20)
+                .count())
+            return "1";
+        return Integer.toString(currentLeaderId + 1);
+    }
+
     /**
      * Used to create the PRE-PREPARE message
      * Virtually the start of the consensus
@@ -143,7 +289,7 @@ public class NodeService implements UDPService {
      * @throws Exception exception
      */
     public boolean verifyTransactionAuthenticity(Transaction transaction) throws Exception {
-        return RSASignature.verifySign(transaction.getSignable(), transaction.getSignature(), transaction.getSender());
+        return TransactionVerifier.isAuthentic(transaction);
     }
 
     /**
@@ -160,94 +306,169 @@ public class NodeService implements UDPService {
 
     /**
      * Verifies if a block is valid, i.e. block is authentic; transactions are unique and don't break balance
+     * Every transaction signature is verified first, in parallel, then the transactions are checked in order
      *
      * @param block the block to be verified
+     * @param instance consensus instance the block was proposed for
      * @return boolean whether the block is valid
      * @throws Exception exception
      */
-    public boolean verifyBlockValidity(Block block) throws Exception {
+    public boolean verifyBlockValidity(Block block, int instance) throws Exception {
         // Validity implies authenticity
         if (!verifyBlockAuthenticity(block)) {
             return false;
         }
 
-        // Temporary client balance - verifies if transactions are valid in this context
-        Map<String, Double> currentClientsBalance = new ConcurrentHashMap<>();
         // The block's transactions
         List<Transaction> transactions = block.getTransactions();
+        // A single forged transaction makes the whole block invalid
+        if (!transactionVerifier.verifyAll(transactions)) {
+            return false;
+        }
+
+        // Temporary client balance (in units) - verifies if transactions are valid in this context
+        Map<String, Long> currentClientsBalance = new HashMap<>();
+        // A transaction can only appear once in the block
+        Set<String> blockTransactions = new HashSet<>();
 
         for (Transaction transaction: transactions) {
-            currentClientsBalance.putIfAbsent(transaction.getSender(), clientsBalance.get(transaction.getSender()));
-            if (verifyTransactionValidity(transaction, currentClientsBalance).isPresent()) {
+            if (!blockTransactions.add(Mempool.keyOf(transaction))) {
+                return false;
+            }
+            // Transactions of previous running instances can't be spent again
+            if (isReserved(transaction, instance, true)) {
+                return false;
+            }
+            currentClientsBalance.putIfAbsent(transaction.getSender(), getSpendableBalance(transaction.getSender(), instance, true));
+            if (verifyTransactionValidity(transaction, currentClientsBalance, true).isPresent()) {
                 return false;
             }
             currentClientsBalance.replace(
                     transaction.getSender(),
-                    clientsBalance.get(transaction.getSender()) - transaction.getAmount());
+                    currentClientsBalance.get(transaction.getSender()) - AccountState.costOf(transaction));
         }
         return true;
     }
 
+    /**
+     * Transactions of the other running consensus instances
+     *
+     * @param instance instance asking, its own transactions are not considered
+     * @param proposedOnly only consider instances whose PRE-PREPARE was already received,
+     *                     the others only hold the transactions this node expects
+     * @return Stream<Transaction> - reserved transactions
+     */
+    private Stream<Transaction> getReservedTransactions(int instance, boolean proposedOnly) {
+        return reservedTransactions.entrySet().stream()
+                .filter(entry -> entry.getKey() != instance)
+                .filter(entry -> !proposedOnly || receivedPrePrepare.containsKey(entry.getKey()))
+                .flatMap(entry -> entry.getValue().stream());
+    }
+
+    /**
+     * Checks if a transaction was already used in another running consensus instance
+     *
+     * @param transaction transaction to look for
+     * @param instance instance asking, its own transactions are not considered
+     * @param proposedOnly only consider instances whose PRE-PREPARE was already received
+     * @return boolean whether the transaction is reserved by another instance
+     */
+    private boolean isReserved(Transaction transaction, int instance, boolean proposedOnly) {
+        String key = Mempool.keyOf(transaction);
+        return getReservedTransactions(instance, proposedOnly)
+                .anyMatch(reserved -> Mempool.keyOf(reserved).equals(key));
+    }
+
+    /**
+     * Balance a client can spend in a given consensus instance, i.e. its balance
+     * minus what is already spent in the other running instances
+     *
+     * @param clientId client to check
+     * @param instance instance asking, its own transactions are not considered
+     * @param proposedOnly only consider instances whose PRE-PREPARE was already received
+     * @return long - balance left to spend, in units
+     */
+    private long getSpendableBalance(String clientId, int instance, boolean proposedOnly) {
+        return accounts.getUnits(clientId) - getReservedTransactions(instance, proposedOnly)
+                .filter(transaction -> transaction.getSender().equals(clientId))
+                .mapToLong(AccountState::costOf)
+                .sum();
+    }
+
     /**
      * Check if a transaction is valid, i.e. its authentic and doesn't break balance for the given context
      *
      * @param transaction transaction to evaluate
-     * @param currentClientsBalance current balance context
+     * @param currentClientsBalance current balance context, in units
+     * @param authentic whether the signature of the transaction was already found valid
      * @return Optional<TResponseMessage.Status> - Status of validity, if Optional.empty(), is valid
-     * @throws Exception exception
      */
-    public Optional<TResponseMessage.Status> verifyTransactionValidity(Transaction transaction, Map<String, Double> currentClientsBalance) throws Exception {
-        // Prevents replay attacks after and before a transaction is committed
-        if (completedTransfers.contains(transaction.getNonce()) || transactionRequests.stream().filter(t -> t.equals(transaction.toJson())).count() > 1) {
+    public Optional<TResponseMessage.Status> verifyTransactionValidity(Transaction transaction,
+            Map<String, Long> currentClientsBalance, boolean authentic) {
+        // Prevents replay attacks after a transaction is committed (the mempool rejects them before)
+        if (completedTransfers.contains(transaction)) {
             return Optional.of(TResponseMessage.Status.FAILED_REPEATED);
         }
 
         // Verifies if client has enough money to do that transaction
-        else if (currentClientsBalance.get(transaction.getSender()) < transaction.getAmount() + Block.getFixedTransactionFee()) {
+        else if (currentClientsBalance.get(transaction.getSender()) < AccountState.costOf(transaction)) {
             return Optional.of(TResponseMessage.Status.FAILED_BALANCE);
         }
 
         // Verifies if transaction is signed by the client
-        else if (!verifyTransactionAuthenticity(transaction)){
+        else if (!authentic){
             return Optional.of(TResponseMessage.Status.FAILED_SIGNATURE);
         }
         return Optional.empty();
     }
 
     /**
-     * Returns a list of size MaxBlockSize, with valid transactions.
-     * If transactions not valid are found, remove them from the list.
+     * Returns the valid transactions for a block, in the mempool's selection order,
+     * up to the transactions and bytes allowed by the block cutter.
+     * If transactions not valid are found, remove them from the mempool.
+     * Transactions already proposed in other running instances are skipped.
+     * Signatures are verified in parallel, a block worth of transactions at a time.
      *
-     * @return List<Transaction> - Transactions needed for the block; but can also be less
+     * @param instance consensus instance the transactions are for
+     * @return BlockCutter.Batch - Transactions for the block, full or not; can also be empty
      * @throws Exception exception
      */
-    public List<Transaction> getValidTransactions() throws Exception {
-        List<Transaction> transactions = new ArrayList<>();
-
-        // Temporary client balance - verifies if transactions are valid in this context
-        Map<String, Double> currentClientsBalance = new ConcurrentHashMap<>();
-
-        for (String transactionString : transactionRequests) {
-            Transaction transaction = Transaction.fromJson(transactionString);
-            // To save memory, copy only from clientsBalance values used in this context
-            currentClientsBalance.putIfAbsent(transaction.getSender(), clientsBalance.get(transaction.getSender()));
-            // if not valid, remove from the requests
-            Optional<TResponseMessage.Status> transactionValidity = verifyTransactionValidity(transaction, currentClientsBalance);
-            if (transactionValidity.isPresent()) {
-                transactionRequests.remove(transactionString);
-                sendFailedTResponseMessage(transaction, transactionValidity.get());
-                continue;
+    public BlockCutter.Batch getValidTransactions(int instance) throws Exception {
+        BlockCutter.Batch batch = blockCutter.newBatch();
+
+        // Temporary client balance (in units) - verifies if transactions are valid in this context
+        Map<String, Long> currentClientsBalance = new HashMap<>();
+
+        List<Transaction> candidates = mempool.getSelectionOrder().stream()
+                .filter(transaction -> !isReserved(transaction, instance, false))
+                .toList();
+        int window = Math.max(1, blockCutter.getMaxTransactions());
+
+        for (int from = 0; from < candidates.size(); from += window) {
+            List<Transaction> transactions = candidates.subList(from, Math.min(from + window, candidates.size()));
+            boolean[] authentic = transactionVerifier.verify(transactions);
+
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                // To save memory, copy only the balances used in this context
+                currentClientsBalance.putIfAbsent(transaction.getSender(), getSpendableBalance(transaction.getSender(), instance, false));
+                // if not valid, remove from the requests
+                Optional<TResponseMessage.Status> transactionValidity = verifyTransactionValidity(transaction, currentClientsBalance, authentic[i]);
+                if (transactionValidity.isPresent()) {
+                    mempool.remove(transaction);
+                    sendFailedTResponseMessage(transaction, transactionValidity.get());
+                    continue;
+                }
+                // The block is full
+                if (!batch.add(transaction))
+                    return batch;
+                currentClientsBalance.replace(
+                        transaction.getSender(),
+                        currentClientsBalance.get(transaction.getSender()) - AccountState.costOf(transaction));
             }
-            transactions.add(transaction);
-            currentClientsBalance.replace(
-                    transaction.getSender(),
-                    clientsBalance.get(transaction.getSender()) - transaction.getAmount());
-            // Number of transactions needed for the block creation
-            if(transactions.size() == Block.getMaxBlockSize())
-                return transactions;
         }
         // could be empty !
-        return transactions;
+        return batch;
     }
 
     /**
@@ -259,6 +480,7 @@ public class NodeService implements UDPService {
      */
     public Block createBlock (String authorId, List<Transaction> transactions) throws Exception {
         Block newBlock = new Block(authorId, transactions);
+        newBlock.setPreviousHash(lastBlockHash);
 
         String signable = newBlock.getSignable();
         newBlock.setSignature(RSASignature.sign(signable, authorId));
@@ -270,7 +492,7 @@ public class NodeService implements UDPService {
 
     // Get the balance of a specific client passed as an argument
     public Double getBalance(String clientId) {
-        return clientsBalance.get(clientId);
+        return accounts.getBalance(clientId);
     }
 
 
@@ -284,24 +506,45 @@ public class NodeService implements UDPService {
      */
     public void newTransferRequest(Transaction transaction) throws Exception {
         // CLIENT REPLAY ATTACK byzantine test
-        if (Tests.clientReplayAttack(config.getBehavior()) && transactionRequests.size() > 0){
-            // Adds the previous transaction in the Queue to the Queue again
-            transactionRequests.add(transactionRequests.get(transactionRequests.size() - 1));
+        if (Tests.clientReplayAttack(config.getBehavior()) && mempool.getNewest() != null){
+            // Adds the previous transaction in the mempool to the mempool again, it must be rejected
+            Transaction replayed = mempool.getNewest();
+            if (mempool.add(replayed) == Mempool.Admission.DUPLICATE)
+                sendFailedTResponseMessage(replayed, TResponseMessage.Status.FAILED_REPEATED);
         }
-        else {
-            // Adds the transaction to the Queue
-            transactionRequests.add(transaction.toJson());
+
+        // Already committed, it could only be rejected later
+        if (completedTransfers.contains(transaction)) {
+            sendFailedTResponseMessage(transaction, TResponseMessage.Status.FAILED_REPEATED);
+            return;
+        }
+
+        // Adds the transaction to the mempool
+        Mempool.Admission admission = mempool.add(transaction);
+        if (admission == Mempool.Admission.DUPLICATE) {
+            sendFailedTResponseMessage(transaction, TResponseMessage.Status.FAILED_REPEATED);
+            return;
+        }
+        if (admission == Mempool.Admission.FULL) {
+            sendFailedTResponseMessage(transaction, TResponseMessage.Status.FAILED_FULL);
+            return;
         }
 
         // IGNORE CLIENT byzantine test
         if (Tests.ignoreClient(config.getBehavior())) {
             if (transaction.getSender().equals("20")) {
-                transactionRequests.remove(transaction.toJson());
+                mempool.remove(transaction);
             }
         }
 
-        // if there are enough Transactions for a block startConsensus
-        if (transactionRequests.size() == Block.getMaxBlockSize()) {
+        // The transaction waits at most maxBlockLatencyMillis for a block
+        blockCutter.arm();
+
+        // if there may be enough Transactions (not yet in a block) for a block startConsensus
+        // (transactions have about the same size, so the new one estimates the bytes pending)
+        int reserved = reservedTransactions.values().stream().mapToInt(List::size).sum();
+        int pending = mempool.size() - reserved;
+        if (blockCutter.mayBeFull(pending, pending * BlockCutter.sizeOf(transaction))) {
             startConsensus();
         }
     }
@@ -309,22 +552,14 @@ public class NodeService implements UDPService {
     /**
      * Updates the leader of the consensus
      */
-    public void changeLeader() {
+    public synchronized void changeLeader() {
         // Update the leader of the consensus
         // (remove the old leader and make the one with the id of the previous leader + 1 the new leader)
         Arrays.stream(nodesConfig).forEach(
                 processConfig -> { if (isLeader(processConfig.getId())) processConfig.setLeader(false); }
         );
 
-        int currentLeaderId = Integer.parseInt(leaderConfig.getId());
-        String newLeaderId;
-
-        if (currentLeaderId + 1 > Arrays.stream(nodesConfig)
-                .filter(processConfig -> Integer.parseInt(processConfig.getId()) < 20)
-                .count())
-            newLeaderId = "1";
-        else
-            newLeaderId = Integer.toString(currentLeaderId + 1);
+        String newLeaderId = getNextLeaderId();
 
         Arrays.stream(nodesConfig).forEach(
                 processConfig -> { if (processConfig.getId().equals(newLeaderId)) processConfig.setLeader(true); }
@@ -344,21 +579,52 @@ public class NodeService implements UDPService {
      * Start an instance of consensus for a new block or preparedBlock
      * Only the current leader will start a consensus instance
      * the remaining nodes only update timers.
+     * Up to pipelineWindow instances can be running at the same time, if the window
+     * is full nothing is done and the consensus is started once an instance is decided
+     * A block is only cut when it is full, or partial once a transaction waited maxBlockLatencyMillis
      *
      * @throws Exception exception
      */
-    public void startConsensus() throws Exception {
+    public synchronized void startConsensus() throws Exception {
+
+        int nextConsensusInstance = this.consensusInstance.get() + 1;
+
+        // Only start a consensus instance if it fits in the pipeline window
+        if (nextConsensusInstance > lastDecidedConsensusInstance.get() + pipelineWindow)
+            return;
+
+        // The leader rotates every 5 consensus instances, so every instance of the
+        // previous leader must be decided before starting the first one of the next leader
+        if (nextConsensusInstance % 5 == 0 && lastDecidedConsensusInstance.get() < nextConsensusInstance - 1)
+            return;
 
         // Get the List of transactions
-        List<Transaction> transactionsForBlock = getValidTransactions();
-        
-        // if there are not enough valid transactions does not start consensus !
-        if (transactionsForBlock.size() != Block.getMaxBlockSize())
+        BlockCutter.Batch batch = getValidTransactions(nextConsensusInstance);
+
+        // No transaction can be proposed now (e.g. a new round proposed every pending one), the deadline
+        // starts again, a transaction arriving later would otherwise wait for a block forever
+        if (batch.isEmpty()) {
+            int reserved = reservedTransactions.values().stream().mapToInt(List::size).sum();
+            blockCutter.cut(mempool.size() > reserved);
             return;
-        
+        }
+
+        // if the block is not full and no transaction waited too long does not start consensus !
+        if (!(batch.isFull() || blockCutter.isDue()))
+            return;
+        List<Transaction> transactionsForBlock = batch.getTransactions();
+
         // Set initial consensus values
         int localConsensusInstance = this.consensusInstance.incrementAndGet();
-        InstanceInfo existingConsensus = this.instanceInfo.put(localConsensusInstance, new InstanceInfo());
+        InstanceInfo existingConsensus = this.instanceInfo.putIfAbsent(localConsensusInstance, new InstanceInfo());
+
+        // Transactions expected in this instance can't be used by the next ones
+        // (replaced by the ones in the block once the PRE-PREPARE arrives)
+        reservedTransactions.put(localConsensusInstance, transactionsForBlock);
+
+        // The latency of the transactions left out starts counting again
+        int reserved = reservedTransactions.values().stream().mapToInt(List::size).sum();
+        blockCutter.cut(mempool.size() > reserved);
 
         // If startConsensus was already called for a given round
         if (existingConsensus != null) {
@@ -368,16 +634,6 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Only start a consensus instance if the last one was decided
-        // We need to be sure that the previous value has been decided
-        while (lastDecidedConsensusInstance.get() < localConsensusInstance - 1) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-
         // verify if there should be a leader rotation
         // rotates every 5 consensus instances
         if (localConsensusInstance % 5 == 0)
@@ -417,16 +673,39 @@ public class NodeService implements UDPService {
                     MessageFormat.format("{0} - Node is not leader, waiting for PRE-PREPARE message", config.getId()));
         }
 
-        // Set the timer of a new consensus for the leader
-        // and a call for the RoundTimer class
-        if (timerConsensus != null) {
-        timerConsensus.cancel();
-        timerConsensus.purge();
-        }
+        // Set the timer of the new consensus, first round
+        roundTimers.start(localConsensusInstance, 1);
+    }
+
+    /**
+     * Starts the next consensus instance with the block proposed by the leader
+     * Used by the nodes that did not cut a block for it yet, the same rules of
+     * startConsensus apply (pipeline window and leader rotation)
+     *
+     * @param instance consensus instance of the PRE-PREPARE
+     * @param transactions transactions of the proposed block
+     */
+    private synchronized void joinConsensus(int instance, List<Transaction> transactions) {
+        int lastDecided = lastDecidedConsensusInstance.get();
+        if (instance != this.consensusInstance.get() + 1 || instance > lastDecided + pipelineWindow)
+            return;
+        if (instance % 5 == 0 && lastDecided < instance - 1)
+            return;
 
-        this.timerConsensus = new Timer();
-        timerConsensus.schedule(new Node.RoundTimer(), timerMillis);
-        timerInstance = localConsensusInstance;
+        this.consensusInstance.incrementAndGet();
+        this.instanceInfo.putIfAbsent(instance, new InstanceInfo());
+        reservedTransactions.put(instance, transactions);
+
+        int reserved = reservedTransactions.values().stream().mapToInt(List::size).sum();
+        blockCutter.cut(mempool.size() > reserved);
+
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Joining consensus instance {1} started by the leader",
+                config.getId(), instance));
+
+        if (instance % 5 == 0)
+            changeLeader();
+
+        roundTimers.start(instance, 1);
     }
 
     /**
@@ -452,8 +731,21 @@ public class NodeService implements UDPService {
                         "{0} - Received PRE-PREPARE message from {1} Consensus Instance {2}, Round {3}",
                         config.getId(), senderId, consensusInstance, round));
 
+        // PREPARE and COMMIT messages will refer to the block by its digest. It is kept even if this
+        // node is still deciding previous instances and can't take part yet, the others may decide it meanwhile
+        // (the first instance of the next leader is proposed by it before this node rotates the leader)
+        int lastDecided = lastDecidedConsensusInstance.get();
+        if (isLeaderOf(senderId, consensusInstance) && consensusInstance > lastDecided
+                && consensusInstance <= lastDecided + 2 * pipelineWindow)
+            rememberBlock(consensusInstance, block);
+
+        // Verify if pre-prepare was sent by leader, before anything is done for the instance:
+        // any other node could make every replica start instances the leader never proposes
+        if (!isLeaderOf(senderId, consensusInstance))
+            return;
+
         // Verify if Block created by the leader has valid transactions
-        if (!verifyBlockValidity(block)) {
+        if (!verifyBlockValidity(block, consensusInstance)) {
             LOGGER.log(Level.INFO,
                     MessageFormat.format( Colors.YELLOW +
                             "{0} - Invalid block in PRE-PREPARE from {1} Consensus Instance {2}, Round {3}" + Colors.RESET,
@@ -461,8 +753,20 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Verify if the leader is using the correct consensusInstance
-        if (this.consensusInstance.get() != consensusInstance) {
+        // The signatures of the justification are checked before joining or locking the instance
+        // (verified signatures are cached, justifyPrePrepare won't pay for them again)
+        if (!verifyJustification(message.getJustification()))
+            return;
+
+        // The leader may cut a block before the block cutter of this node does
+        if (consensusInstance == this.consensusInstance.get() + 1)
+            joinConsensus(consensusInstance, block.getTransactions());
+
+        // Verify if the leader is using a consensusInstance this node started
+        // and that is still running within the pipeline window
+        lastDecided = lastDecidedConsensusInstance.get();
+        if (consensusInstance > this.consensusInstance.get() || consensusInstance <= lastDecided
+                || consensusInstance > lastDecided + pipelineWindow) {
             LOGGER.log(Level.INFO,
                     MessageFormat.format( Colors.YELLOW +
                                     "{0} - Invalid Consensus Instance in PRE-PREPARE from {1} Consensus Instance {2}, Round {3}" + Colors.RESET,
@@ -470,12 +774,46 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Verify if pre-prepare was sent by leader
+        // The leader may have changed while joining the instance
         if (!isLeader(senderId))
             return;
 
+        // Blocks are chained, with a single instance running the previous block is already in the ledger
+        if (pipelineWindow == 1 && !lastBlockHash.equals(block.getPreviousHash())) {
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format( Colors.YELLOW +
+                            "{0} - Block in PRE-PREPARE from {1} Consensus Instance {2}, Round {3} is not chained to the ledger" + Colors.RESET,
+                            config.getId(), senderId, consensusInstance, round));
+            return;
+        }
+
+        String digest = block.getHash();
+
         // Set instance value
         this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo());
+        InstanceInfo instance = this.instanceInfo.get(consensusInstance);
+
+        instance.getLock().lock();
+        try {
+            prePrepareLocked(message, digest, instance);
+        } finally {
+            instance.getLock().unlock();
+        }
+    }
+
+    /**
+     * Rest of the PRE-PREPARE upon rule, with the lock of the instance held
+     *
+     * @param message PRE-PREPARE message
+     * @param digest digest of the proposed block
+     * @param instance state of the instance
+     * @throws Exception exception
+     */
+    private void prePrepareLocked(ConsensusMessage message, String digest, InstanceInfo instance) throws Exception {
+        int consensusInstance = message.getConsensusInstance();
+        int round = message.getRound();
+        String senderId = message.getSenderId();
+        int senderMessageId = message.getMessageId();
 
         // Within an instance of the algorithm, each upon rule is triggered at most once
         // for any round r
@@ -496,12 +834,15 @@ public class NodeService implements UDPService {
             return;
         }
 
-        PrepareMessage prepareMessage = new PrepareMessage(prePrepareMessage.getBlock());
+        // The transactions of the instance are the ones chosen by the leader
+        reservedTransactions.put(consensusInstance, proposedBlocks.get(consensusInstance).get(digest).getTransactions());
+
+        PrepareMessage prepareMessage = new PrepareMessage(digest);
 
         // DIFFERENT PREPARE VALUE byzantine test
         if (Tests.differentPrepareValue(config.getBehavior(), config.getId()).isPresent()) {
             Block differentBlock = Tests.differentPrepareValue(config.getBehavior(), config.getId()).get();
-            prepareMessage = new PrepareMessage(differentBlock.toJson());
+            prepareMessage = new PrepareMessage(differentBlock.getHash());
         }
 
         ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PREPARE)
@@ -514,16 +855,13 @@ public class NodeService implements UDPService {
 
         this.link.broadcast(consensusMessage);
 
-        // Set the timer of a new consensus for the node
-        // and a call for the RoundTimer class
-        if (!senderId.equals(config.getId()) && timerConsensus != null) {
-            timerConsensus.cancel();
-            timerConsensus.purge();
-
-            this.timerConsensus = new Timer();
-            timerConsensus.schedule(new Node.RoundTimer(), timerMillis);
-            timerInstance = consensusInstance;
+        // Reset the timer of the consensus for the node, the leader of the round is alive
+        if (!senderId.equals(config.getId()) && instance.getCurrentRound() == round) {
+            roundTimers.restart(consensusInstance, round);
         }
+
+        // PREPARE messages that arrived before the block may already be a quorum
+        prepareQuorumLocked(consensusInstance, round, instance);
     }
 
     /**
@@ -532,7 +870,7 @@ public class NodeService implements UDPService {
      * @param message Message to be handled
      * @throws Exception exception
      */
-    public synchronized void uponPrepare(ConsensusMessage message) throws Exception {
+    public void uponPrepare(ConsensusMessage message) throws Exception {
 
         int consensusInstance = message.getConsensusInstance();
         int round = message.getRound();
@@ -548,6 +886,13 @@ public class NodeService implements UDPService {
                         "{0} - Received PREPARE message from {1}: Consensus Instance {2}, Round {3}",
                         config.getId(), senderId, consensusInstance, round));
 
+        // Late prepare for an instance that was already pruned, the sender can only be helped
+        // with the commit quorum that decided it
+        if (consensusInstance <= prunedConsensusInstance) {
+            sendCommitCertificate(senderId, consensusInstance);
+            return;
+        }
+
         // Doesn't add duplicate messages
         prepareMessages.addMessage(message);
 
@@ -555,6 +900,26 @@ public class NodeService implements UDPService {
         this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo());
         InstanceInfo instance = this.instanceInfo.get(consensusInstance);
 
+        instance.getLock().lock();
+        try {
+            prepareLocked(message, instance);
+        } finally {
+            instance.getLock().unlock();
+        }
+    }
+
+    /**
+     * Rest of the PREPARE upon rule, with the lock of the instance held
+     *
+     * @param message PREPARE message
+     * @param instance state of the instance
+     * @throws Exception exception
+     */
+    private void prepareLocked(ConsensusMessage message, InstanceInfo instance) throws Exception {
+        int consensusInstance = message.getConsensusInstance();
+        int round = message.getRound();
+        String senderId = message.getSenderId();
+
         // Within an instance of the algorithm, each upon rule is triggered at most once
         // for any round r
         // Late prepare (consensus already ended for other nodes) only reply to him (as
@@ -582,25 +947,52 @@ public class NodeService implements UDPService {
             return;
         }
 
+        prepareQuorumLocked(consensusInstance, round, instance);
+    }
+
+    /**
+     * Prepares the instance if there is a PREPARE quorum for a block this node received, with the lock of the instance held
+     *
+     * @param consensusInstance consensus instance
+     * @param round round of the PREPARE messages
+     * @param instance state of the instance
+     * @throws Exception exception
+     */
+    private void prepareQuorumLocked(int consensusInstance, int round, InstanceInfo instance) throws Exception {
         // Find value with valid quorum
-        Optional<String> preparedBlock = prepareMessages.hasValidPrepareQuorum(config.getId(), consensusInstance, round);
-        if (preparedBlock.isPresent() && instance.getPreparedRound() < round) {
+        Optional<String> preparedDigest = prepareMessages.hasValidPrepareQuorum(config.getId(), consensusInstance, round);
+        if (preparedDigest.isPresent() && instance.getPreparedRound() < round) {
 
-            Block quorumBlock = Block.fromJson(preparedBlock.get());
+            // The block only travels in the PRE-PREPARE, it is prepared once that arrives too
+            Block quorumBlock = getProposedBlock(consensusInstance, preparedDigest.get());
+            if (quorumBlock == null) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - PREPARE quorum for Consensus Instance {1}, Round {2}, waiting for its block",
+                                config.getId(), consensusInstance, round));
+                return;
+            }
 
             instance.setPreparedBlock(quorumBlock);
             instance.setPreparedRound(round);
 
+            // Built once, it justifies every ROUND-CHANGE this node sends for the instance from now on
+            String preparedPayload = new PrepareMessage(preparedDigest.get()).toJson();
+            instance.setPrepareCertificate(new QuorumCertificate(Message.Type.PREPARE, consensusInstance, round,
+                    prepareMessages.getPrepareMessages(consensusInstance, round).orElse(List.of()).stream()
+                            .filter(m -> m.getMessage().equals(preparedPayload))
+                            .toList()));
+
             // Must reply to prepare message senders
             Collection<ConsensusMessage> sendersMessage = prepareMessages.getMessages(consensusInstance, round)
                     .values();
 
-            CommitMessage c = new CommitMessage(preparedBlock.get());
+            CommitMessage c = new CommitMessage(preparedDigest.get());
 
             // DIFFERENT COMMIT VALUE byzantine test
             if (Tests.differentCommitValue(config.getBehavior(), config.getId()).isPresent()) {
                 Block differentBlock = Tests.differentCommitValue(config.getBehavior(), config.getId()).get();
-                c = new CommitMessage(differentBlock.toJson());
+                c = new CommitMessage(differentBlock.getHash());
             }
 
             instance.setCommitMessage(c);
@@ -626,8 +1018,9 @@ public class NodeService implements UDPService {
      * Handle commit messages and decide if there is a valid quorum
      *
      * @param message Message to be handled
+     * @throws Exception exception
      */
-    public synchronized void uponCommit(ConsensusMessage message) {
+    public void uponCommit(ConsensusMessage message) throws Exception {
 
         int consensusInstance = message.getConsensusInstance();
         int round = message.getRound();
@@ -642,9 +1035,22 @@ public class NodeService implements UDPService {
                 MessageFormat.format("{0} - Received COMMIT message from {1}: Consensus Instance {2}, Round {3}",
                         config.getId(), message.getSenderId(), consensusInstance, round));
 
-        commitMessages.addMessage(message);
+        // Commit quorum sent to this node because it is late, its COMMIT messages are handled as if
+        // they had been received from their senders
+        if (message.getJustification() != null) {
+            if (!verifyCertificate(message.getJustification(), Message.Type.COMMIT))
+                return;
+            for (ConsensusMessage commitMessage : message.getJustification().toMessages())
+                uponCommit(commitMessage);
+            return;
+        }
 
-        CommitMessage commitMessage = message.deserializeCommitMessage();
+        // Instance was decided and pruned long ago
+        if (consensusInstance <= prunedConsensusInstance) {
+            return;
+        }
+
+        commitMessages.addMessage(message);
 
         InstanceInfo instance = this.instanceInfo.get(consensusInstance);
 
@@ -656,103 +1062,527 @@ public class NodeService implements UDPService {
             return;
         }
 
-        // Within an instance of the algorithm, each upon rule is triggered at most once
-        // for any round r
-        if (instance.getCommittedRound() >= round) {
+        Optional<String> commitBlock;
+        instance.getLock().lock();
+        try {
+            // Within an instance of the algorithm, each upon rule is triggered at most once
+            // for any round r, and an instance decides once (a quorum of a later round can only
+            // commit the same block)
+            if (instance.getCommittedRound() > -1) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - Already decided Consensus Instance {1} in Round {2}, ignoring COMMIT of Round {3}",
+                                config.getId(), consensusInstance, instance.getCommittedRound(), round));
+                return;
+            }
+
+            commitBlock = commitMessages.hasValidCommitQuorum(consensusInstance, round);
+            if (commitBlock.isEmpty())
+                return;
+
+            instance.setCommittedRound(round);
+
+            // Keep the quorum that decided the instance, it outlives the messages in the buckets
+            String decidedValue = commitBlock.get();
+            commitCertificates.put(consensusInstance, new CommitCertificate(consensusInstance, round,
+                    commitMessages.getCommitMessages(consensusInstance, round).orElse(List.of()).stream()
+                            .filter(m -> m.deserializeCommitMessage().getDigest().equals(decidedValue))
+                            .toList()));
+
             LOGGER.log(Level.INFO,
                     MessageFormat.format(
-                            "{0} - Already received COMMIT message for Consensus Instance {1}, Round {2}, ignoring",
-                            config.getId(), consensusInstance, round));
+                            "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
+                            config.getId(), consensusInstance, round, true));
+        } finally {
+            instance.getLock().unlock();
+        }
+
+        // Cancels the timer of the consensus when a quorum of commits
+        // is acquired
+        roundTimers.stop(consensusInstance);
+
+        // A quorum committed a block this node never received, it is applied once its PRE-PREPARE arrives
+        Block decidedBlock = getProposedBlock(consensusInstance, commitBlock.get());
+        if (decidedBlock == null) {
+            undeliveredDecisions.put(consensusInstance, commitBlock.get());
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format( Colors.YELLOW +
+                            "{0} - Decided on Consensus Instance {1} without its block, waiting for it" + Colors.RESET,
+                            config.getId(), consensusInstance));
             return;
         }
 
-        Optional<String> commitBlock = commitMessages.hasValidCommitQuorum(
-                consensusInstance, round);
+        deliverDecision(consensusInstance, decidedBlock);
+    }
 
-        if (commitBlock.isPresent() && instance.getCommittedRound() < round) {
+    /**
+     * Applies a decided block once every previous instance is applied, then tries to start the next instance
+     *
+     * @param consensusInstance decided instance
+     * @param block decided block
+     */
+    private void deliverDecision(int consensusInstance, Block block) {
+        deliverDecisions(Map.of(consensusInstance, block));
+    }
 
-            instance = this.instanceInfo.get(consensusInstance);
-            instance.setCommittedRound(round);
+    /**
+     * Applies decided blocks once every previous instance is applied, then tries to start the next instance
+     *
+     * @param blocks decided instance -> decided block
+     */
+    private void deliverDecisions(Map<Integer, Block> blocks) {
+        // Instances may be decided out of order, blocks wait here until
+        // every previous instance is applied (one thread at a time, in instance order)
+        synchronized (decidedBlocks) {
+            // An instance already applied would stay first forever and hold back the next ones
+            blocks.forEach((instance, block) -> {
+                if (instance > lastDecidedConsensusInstance.get())
+                    decidedBlocks.putIfAbsent(instance, block);
+            });
+
+            while (!decidedBlocks.isEmpty() && decidedBlocks.firstKey() == lastDecidedConsensusInstance.get() + 1) {
+                Map.Entry<Integer, Block> nextBlock = decidedBlocks.pollFirstEntry();
+                applyBlock(nextBlock.getKey(), nextBlock.getValue());
+            }
+            pruneDecidedInstances();
+        }
+
+        // A slot of the pipeline was freed, there may be enough transactions waiting
+        try {
+            startConsensus();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks that a block fetched from another node was decided, i.e. a valid commit quorum of its
+     * instance committed to its digest
+     *
+     * @param decidedBlock record of the block log of another node
+     * @return boolean - whether the block can be applied
+     */
+    private boolean verifyDecidedBlock(DecidedBlock decidedBlock) {
+        CommitCertificate certificate = decidedBlock.getCertificate();
+        if (decidedBlock.getBlock() == null || certificate == null
+                || certificate.getConsensusInstance() != decidedBlock.getConsensusInstance())
+            return false;
+        try {
+            return new CommitMessage(decidedBlock.getBlock().getHash()).toJson().equals(certificate.getValue())
+                    && verifyCertificate(certificate, Message.Type.COMMIT);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies the blocks fetched from other nodes, as if this node had decided them
+     * The instances it was running among them are over, it carries on from the last one
+     *
+     * @param fetchedBlocks verified records, in instance order
+     */
+    private void deliverFetchedBlocks(List<DecidedBlock> fetchedBlocks) {
+        Map<Integer, Block> blocks = new TreeMap<>();
+        for (DecidedBlock decidedBlock : fetchedBlocks) {
+            int instance = decidedBlock.getConsensusInstance();
+            commitCertificates.putIfAbsent(instance, decidedBlock.getCertificate());
+            undeliveredDecisions.remove(instance);
+            roundTimers.stop(instance);
+            blocks.put(instance, decidedBlock.getBlock());
+        }
 
-            Block blockToLedger = Block.fromJson(commitBlock.get());
-
-            // Append value to the ledger (must be synchronized to be thread-safe)
-            synchronized(ledger) {
-
-                // Increment size of ledger to accommodate current instance
-                ledger.ensureCapacity(consensusInstance);
-                
-                // Add block to ledger
-                ledger.add(consensusInstance - 1, blockToLedger);
-
-                // Debug convenience
-                StringBuilder ledgerInfo = new StringBuilder();
-                int blockCounter = 1;
-                ledgerInfo.append("\n");
-                for (Block block : ledger) {
-                    ledgerInfo.append("Block: ").append(blockCounter).append("\n");
-                    for (Transaction transaction : block.getTransactions()) {
-                        ledgerInfo
-                                .append("     ")
-                                .append("Sender: ").append(transaction.getSender())
-                                .append(" Receiver: ").append(transaction.getReceiver())
-                                .append(" Value: ").append(transaction.getAmount())
-                                .append("\n");
+        DecidedBlock last = fetchedBlocks.get(fetchedBlocks.size() - 1);
+        skipTo(last.getConsensusInstance(), last.getBlock().getAuthorId());
+        runEvent(() -> deliverDecisions(blocks));
+    }
+
+    /**
+     * Moves this node past the instances it caught up on
+     *
+     * @param instance last instance caught up on
+     * @param lastLeader author of its block, led it
+     */
+    private synchronized void skipTo(int instance, String lastLeader) {
+        if (this.consensusInstance.get() >= instance)
+            return;
+        this.consensusInstance.set(instance);
+        followLeader(lastLeader);
+    }
+
+    /**
+     * Rotates the leader until it is the given node, the rotation carries on from there
+     *
+     * @param leaderId node that led the last known instance
+     */
+    private void followLeader(String leaderId) {
+        for (int i = 0; i < nodesConfig.length && !isLeader(leaderId); i++)
+            changeLeader();
+    }
+
+    /**
+     * Keeps a block proposed for an instance, so it can be found by the digest in PREPARE and COMMIT messages
+     * If the instance was already decided with this block, it is applied now
+     *
+     * @param consensusInstance consensus instance
+     * @param block proposed block
+     */
+    private void rememberBlock(int consensusInstance, Block block) {
+        String digest = block.getHash();
+        proposedBlocks.computeIfAbsent(consensusInstance, i -> new ConcurrentHashMap<>()).putIfAbsent(digest, block);
+
+        if (undeliveredDecisions.remove(consensusInstance, digest))
+            deliverDecision(consensusInstance, block);
+    }
+
+    /**
+     * @param consensusInstance consensus instance
+     * @param digest digest of a block
+     * @return Block - block proposed for the instance with the digest, null if it was never received
+     */
+    private Block getProposedBlock(int consensusInstance, String digest) {
+        Map<String, Block> blocks = proposedBlocks.get(consensusInstance);
+        return blocks == null ? null : blocks.get(digest);
+    }
+
+    /**
+     * Appends a decided block to the ledger, updates the balances and answers the clients
+     * Must be called in instance order
+     *
+     * @param consensusInstance instance that decided the block
+     * @param blockToLedger decided block
+     */
+    private void applyBlock(int consensusInstance, Block blockToLedger) {
+        addToLedger(blockToLedger);
+        printLedger();
+        verifySupply(consensusInstance);
+
+        lastDecidedConsensusInstance.set(consensusInstance);
+
+        // Every instance decides one block, the ledger may only hold the blocks after the restored snapshot
+        int position = consensusInstance;
+
+        // Taken now but written once the block is durable, so a snapshot is never ahead of the block log
+        StateSnapshot snapshot = snapshotInterval > 0 && consensusInstance % snapshotInterval == 0
+                ? takeSnapshot(consensusInstance, blockToLedger)
+                : null;
+
+        // The block is stored with the quorum that decided it, clients are only answered once it is durable
+        DecidedBlock decidedBlock = new DecidedBlock(consensusInstance, blockToLedger,
+                commitCertificates.get(consensusInstance));
+        blockLog.append(consensusInstance, decidedBlock.toJson().getBytes(StandardCharsets.UTF_8))
+                .whenComplete((result, exception) -> {
+                    if (exception != null) {
+                        LOGGER.log(Level.INFO,
+                                MessageFormat.format("{0} - Failed to store Consensus Instance {1}: {2}",
+                                        config.getId(), consensusInstance, exception.getMessage()));
+                        return;
                     }
-                    blockCounter++;
-                }
-                // This could have been LOGGER, but for some reason it prints twice
-                System.out.println(Colors.CYAN + config.getId() + "- Current Ledger: " + ledgerInfo + Colors.RESET);
-                /*LOGGER.log(Level.INFO,
-                    MessageFormat.format( Colors.CYAN +
-                            "{0} - Current Ledger: {1}" + Colors.RESET,
-                            config.getId(), ledgerInfo));*/
-            }
+                    sendTransferResponses(blockToLedger, position);
+                    if (snapshot != null)
+                        snapshots.write(consensusInstance, snapshot::toBytes);
+                });
 
-            lastDecidedConsensusInstance.getAndIncrement();
+        // The transactions are now part of the balances
+        reservedTransactions.remove(consensusInstance);
+    }
 
+    /**
+     * Copies the state right after a block was applied, the copy is encoded and written
+     * by the snapshot writer thread
+     *
+     * @param consensusInstance instance whose block was just applied
+     * @param lastBlock block it decided
+     * @return StateSnapshot - copy of the state
+     */
+    private StateSnapshot takeSnapshot(int consensusInstance, Block lastBlock) {
+        return new StateSnapshot(consensusInstance, lastBlock.getHash(), lastBlock.getAuthorId(),
+                accounts.copyBalances(), completedTransfers.copy());
+    }
+
+    /**
+     * Transfers and fees only move money between accounts, the sum of the balances
+     * must stay the same after every block
+     *
+     * @param consensusInstance instance whose block was just applied
+     */
+    private void verifySupply(int consensusInstance) {
+        long supply = accounts.getSupplyUnits();
+        if (supply != accounts.getTotalSupplyUnits()) {
             LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
-                            config.getId(), consensusInstance, round, true));
+                    MessageFormat.format( Colors.RED +
+                            "{0} - CRITICAL: Balances add up to {1} after Consensus Instance {2}, expected {3}" + Colors.RESET,
+                            config.getId(), AccountState.toAmount(supply), consensusInstance,
+                            AccountState.toAmount(accounts.getTotalSupplyUnits())));
+        }
+    }
 
-            int position = ledger.size();
+    /**
+     * Appends a block to the ledger and applies its transactions to the balances
+     *
+     * @param blockToLedger decided block
+     */
+    private void addToLedger(Block blockToLedger) {
+        // Append value to the ledger (must be synchronized to be thread-safe)
+        synchronized(ledger) {
+            ledger.add(blockToLedger);
+            lastBlockHash = blockToLedger.getHash();
+        }
 
-            Block committedBlock = Block.fromJson(commitMessage.getBlock());
-            
-            // Update client balances and send TransferResponse for each transaction in the block committed
-            for (Transaction transaction : committedBlock.getTransactions()) {
-                // Update the balances of the clients
-                synchronized(clientsBalance) {
-                    clientsBalance.put(transaction.getSender(), clientsBalance.get(transaction.getSender()) - transaction.getAmount());
-                    clientsBalance.put(transaction.getReceiver(), clientsBalance.get(transaction.getReceiver()) + transaction.getAmount());
-                    // Transaction fee
-                    clientsBalance.put(transaction.getSender(), clientsBalance.get(transaction.getSender()) - Block.getFixedTransactionFee());
-                    clientsBalance.put(committedBlock.getAuthorId(), clientsBalance.get(committedBlock.getAuthorId()) + Block.getFixedTransactionFee());
+        // Update the balances of the clients, transfers and fees at once
+        accounts.applyBlock(blockToLedger.getAuthorId(), blockToLedger.getTransactions());
+
+        for (Transaction transaction : blockToLedger.getTransactions()) {
+            // Removes the transactions committed from the mempool
+            mempool.remove(transaction);
+
+            // Its sender can't use the nonce again
+            completedTransfers.add(transaction);
+        }
+    }
+
+    /**
+     * Sends a TransferResponse for each transaction of a block in the ledger
+     *
+     * @param block block in the ledger
+     * @param position position of the block in the ledger
+     */
+    private void sendTransferResponses(Block block, int position) {
+        for (Transaction transaction : block.getTransactions()) {
+            TResponseMessage transferResponse = new TResponseMessage(transaction.toJson(), TResponseMessage.Status.SUCCESS);
+            transferResponse.setPosition(position);
+
+            ClientMessage clientMessage = new ClientMessage(config.getId(), Message.Type.TRANSFER_RESPONSE);
+            clientMessage.setMessage(transferResponse.toJson());
+
+            // Respond to the client
+            clientLink.send(transaction.getSender(), clientMessage);
+        }
+    }
+
+    private void printLedger() {
+        synchronized(ledger) {
+            // Debug convenience
+            StringBuilder ledgerInfo = new StringBuilder();
+            // Blocks decided before the restored snapshot are only in the block log
+            int blockCounter = lastDecidedConsensusInstance.get() - ledger.size() + 1;
+            ledgerInfo.append("\n");
+            for (Block block : ledger) {
+                ledgerInfo.append("Block: ").append(blockCounter).append("\n");
+                for (Transaction transaction : block.getTransactions()) {
+                    ledgerInfo
+                            .append("     ")
+                            .append("Sender: ").append(transaction.getSender())
+                            .append(" Receiver: ").append(transaction.getReceiver())
+                            .append(" Value: ").append(transaction.getAmount())
+                            .append("\n");
                 }
+                blockCounter++;
+            }
+            // This could have been LOGGER, but for some reason it prints twice
+            System.out.println(Colors.CYAN + config.getId() + "- Current Ledger: " + ledgerInfo + Colors.RESET);
+            /*LOGGER.log(Level.INFO,
+                MessageFormat.format( Colors.CYAN +
+                        "{0} - Current Ledger: {1}" + Colors.RESET,
+                        config.getId(), ledgerInfo));*/
+        }
+    }
 
-                String senderId = transaction.getSender();
-                TResponseMessage transferResponse = new TResponseMessage(transaction.toJson(), TResponseMessage.Status.SUCCESS);
-                transferResponse.setPosition(position);
+    /**
+     * Rebuilds the ledger, the balances and the commit certificates from the newest snapshot
+     * and the blocks of the block log decided after it
+     * Called once, before the node starts listening
+     */
+    private void recoverLedger() {
+        StateSnapshot snapshot = restoreSnapshot();
+        int snapshotInstance = snapshot == null ? 0 : snapshot.getInstance();
+
+        blockLog.replay(snapshotInstance + 1, (instance, record) -> {
+            DecidedBlock decidedBlock = DecidedBlock.fromJson(new String(record, StandardCharsets.UTF_8));
+            addToLedger(decidedBlock.getBlock());
+            if (decidedBlock.getCertificate() != null)
+                commitCertificates.put(instance, decidedBlock.getCertificate());
+        });
+
+        int recovered = blockLog.getLastInstance();
+        if (recovered == 0)
+            return;
 
-                ClientMessage clientMessage = new ClientMessage(config.getId(), Message.Type.TRANSFER_RESPONSE);
-                clientMessage.setMessage(transferResponse.toJson());
+        // No messages are kept for the recovered instances, only their certificates
+        lastDecidedConsensusInstance.set(recovered);
+        consensusInstance.set(recovered);
+        prunedConsensusInstance = recovered;
 
-                // Respond to the client
-                clientLink.send(senderId, clientMessage);
+        // The author of the last block led its instance, the rotation continues from there
+        followLeader(ledger.isEmpty() ? snapshot.getLastLeaderId() : ledger.get(ledger.size() - 1).getAuthorId());
 
-                // Removes the transactions committed from the transactionsRequest
-                transactionRequests.remove(transaction.toJson());
+        LOGGER.log(Level.INFO,
+                MessageFormat.format("{0} - Recovered {1} Consensus Instances ({2} from a snapshot), leader is {3}",
+                        config.getId(), recovered, snapshotInstance, leaderConfig.getId()));
+        printLedger();
+    }
 
-                // Adds transaction nonce to the list of completed
-                completedTransfers.add(transaction.getNonce());
+    /**
+     * Restores the balances and the committed nonces of the newest valid snapshot
+     * Snapshots ahead of the block log are skipped, the log may have lost a torn tail
+     *
+     * @return StateSnapshot - restored snapshot, null if there is none
+     */
+    private StateSnapshot restoreSnapshot() {
+        for (int instance : snapshots.getInstances()) {
+            byte[] payload = instance <= blockLog.getLastInstance() ? snapshots.read(instance) : null;
+            if (payload == null)
+                continue;
+            try {
+                StateSnapshot snapshot = StateSnapshot.fromBytes(payload);
+                if (snapshot.getInstance() != instance || !accounts.restore(snapshot.getBalances()))
+                    continue;
+                completedTransfers.restore(snapshot.getNonces());
+                lastBlockHash = snapshot.getLastBlockHash();
+                return snapshot;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Skipping snapshot of Consensus Instance {1}: {2}",
+                        config.getId(), instance, e.getMessage()));
             }
+        }
+        return null;
+    }
+
+    /**
+     * @param instance decided instance
+     * @return CommitCertificate - commit quorum that decided it, read from the block log if
+     *         it was pruned or restored from a snapshot; null if unknown
+     */
+    private CommitCertificate getCommitCertificate(int instance) {
+        CommitCertificate certificate = commitCertificates.get(instance);
+        if (certificate != null)
+            return certificate;
+        byte[] record = blockLog.read(instance);
+        return record == null ? null : DecidedBlock.fromJson(new String(record, StandardCharsets.UTF_8)).getCertificate();
+    }
 
-            // Cancels the timer of the consensus when a quorum of commits
-            // is acquired
-            timerConsensus.cancel();
-            timerConsensus.purge();
+    /**
+     * Sends the commit quorum of a decided instance to a node that is late
+     * The quorum goes as the justification of a COMMIT of this node: message ids are only
+     * meaningful between a sender and a destination, so the COMMIT messages of other nodes
+     * can't be sent again as they are
+     *
+     * @param nodeId node to help
+     * @param instance decided instance
+     */
+    private void sendCommitCertificate(String nodeId, int instance) {
+        CommitCertificate certificate = getCommitCertificate(instance);
+        if (certificate == null)
+            return;
+
+        ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT)
+                .setConsensusInstance(instance)
+                .setRound(certificate.getRound())
+                .setMessage(certificate.getValue())
+                .setJustification(certificate)
+                .build();
+        link.send(nodeId, consensusMessage);
+    }
+
+    /**
+     * Drops the messages and state of the instances that were decided more than
+     * retainedInstances instances ago, their commit certificates are read from the block log
+     */
+    private void pruneDecidedInstances() {
+        int watermark = lastDecidedConsensusInstance.get() - retainedInstances;
+        if (watermark <= prunedConsensusInstance)
+            return;
+
+        prepareMessages.prune(watermark);
+        commitMessages.prune(watermark);
+        roundChangeMessages.prune(watermark);
+        instanceInfo.keySet().removeIf(instance -> instance <= watermark);
+        receivedPrePrepare.keySet().removeIf(instance -> instance <= watermark);
+        proposedBlocks.keySet().removeIf(instance -> instance <= watermark);
+        verifiedJustifications.keySet().removeIf(instance -> instance <= watermark);
+        undeliveredDecisions.keySet().removeIf(instance -> instance <= watermark);
+        commitCertificates.keySet().removeIf(instance -> instance <= watermark);
+        prunedConsensusInstance = watermark;
+
+        LOGGER.log(Level.INFO,
+                MessageFormat.format("{0} - Pruned Consensus Instances up to {1}, retained state: {2}",
+                        config.getId(), watermark, getRetainedStateReport()));
+    }
+
+    /**
+     * Rough estimate of the heap used by each structure that keeps consensus state
+     *
+     * @return String - one entry per structure
+     */
+    public String getRetainedStateReport() {
+        long instanceBytes = instanceInfo.values().stream().mapToLong(InstanceInfo::getRetainedBytes).sum();
+        long prePrepareBytes = receivedPrePrepare.values().stream()
+                .mapToLong(rounds -> MessageBucket.OBJECT_OVERHEAD * (1L + rounds.size())).sum();
+        long certificateBytes = commitCertificates.values().stream().mapToLong(CommitCertificate::getRetainedBytes).sum();
+
+        return MessageFormat.format(
+                "prepares {0} B ({1} instances), commits {2} B ({3} instances), round changes {4} B ({5} instances), "
+                        + "instance info {6} B ({7} instances), pre-prepares {8} B ({9} instances), "
+                        + "commit certificates {10} B ({11} instances)",
+                prepareMessages.getRetainedBytes(), prepareMessages.getInstanceCount(),
+                commitMessages.getRetainedBytes(), commitMessages.getInstanceCount(),
+                roundChangeMessages.getRetainedBytes(), roundChangeMessages.getInstanceCount(),
+                instanceBytes, instanceInfo.size(),
+                prePrepareBytes, receivedPrePrepare.size(),
+                certificateBytes, commitCertificates.size());
+    }
+
+    /**
+     * Verifies a justification, a PREPARE quorum certificate
+     *
+     * @param justification justification sent with a message, may be null
+     * @return boolean - false if it is not a valid PREPARE quorum
+     * @throws Exception exception
+     */
+    private boolean verifyJustification(QuorumCertificate justification) throws Exception {
+        return verifyCertificate(justification, Message.Type.PREPARE);
+    }
+
+    /**
+     * Verifies a quorum certificate of the given type
+     * Done before taking the lock of an instance, so a slow RSA verification doesn't block
+     * other messages of the instance. A certificate for the same instance, round and value
+     * proves the same thing, so it is only verified once
+     *
+     * @param justification certificate sent with a message, may be null
+     * @param type type of the messages of the quorum
+     * @return boolean - false if it is not a valid quorum
+     * @throws Exception exception
+     */
+    private boolean verifyCertificate(QuorumCertificate justification, Message.Type type) throws Exception {
+        if (justification == null)
+            return true;
+
+        int instance = justification.getConsensusInstance();
+        String key = type + ":" + justification.getRound() + ":" + justification.getValue();
+        Set<String> verified = verifiedJustifications.get(instance);
+        if (verified != null && verified.contains(key))
+            return true;
+
+        boolean valid = justification.getType() == type && justification.getValue() != null;
+        Set<String> senders = new HashSet<>();
+        for (ConsensusMessage message : valid ? justification.toMessages() : List.<ConsensusMessage>of()) {
+            if (!isNode(message.getSenderId()) || !senders.add(message.getSenderId())
+                    || !RSASignature.verifySign(message.getSignable(), message.getSignature(), message.getSenderId())) {
+                valid = false;
+                break;
+            }
+        }
+        if (!valid || senders.size() < prepareMessages.getQuorumSize()) {
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format( Colors.YELLOW +
+                            "{0} - Invalid justification for Consensus Instance {1}, Round {2}, ignoring" + Colors.RESET,
+                            config.getId(), instance, justification.getRound()));
+            return false;
         }
+
+        if (instance > prunedConsensusInstance)
+            verifiedJustifications.computeIfAbsent(instance, i -> ConcurrentHashMap.newKeySet()).add(key);
+        return true;
     }
 
     /**
@@ -765,7 +1595,7 @@ public class NodeService implements UDPService {
      * @return boolean whether the justification is valid
      * @throws Exception exception
      */
-    public boolean justifyPrePrepare(String nodeId, int instance, int round, List<ConsensusMessage> justification) throws Exception {
+    public boolean justifyPrePrepare(String nodeId, int instance, int round, QuorumCertificate justification) throws Exception {
         return round == 1 || this.justifyRoundChange(nodeId, instance, round, justification);
     }
 
@@ -775,46 +1605,30 @@ public class NodeService implements UDPService {
      * @param nodeId self identification
      * @param instance instance in question
      * @param round round in question
-     * @param justificationList justification sent by the sender of the PrePrepare message
+     * @param justification justification sent by the sender of the PrePrepare message
      * @return boolean whether the justification is valid
      * @throws Exception exception
      */
-    public boolean justifyRoundChange(String nodeId, int instance, int round, List<ConsensusMessage> justificationList) throws Exception {
+    public boolean justifyRoundChange(String nodeId, int instance, int round, QuorumCertificate justification) throws Exception {
         // If for all round changes messages, none have prepared a value, round change is justified
         if (roundChangeMessages.nonePreparedJustification(instance, round)) {
             return true;
         }
 
-        // Justification messages is the set of the received Prepared messages
-        // piggybacked to the Round-Change message
-        MessageBucket justificationMessages = new MessageBucket(nodesConfig.length);
-        byte[] signature = null;
-        for (ConsensusMessage message : justificationList) {
-            signature = message.getSignature();
-            // Check signature validity for each justification message
-            if (RSASignature.verifySign(message.getSignable(), signature, message.getSenderId())){
-                justificationMessages.addMessage(message);
-            }
-            else {
-                LOGGER.log(Level.INFO,
-                        MessageFormat.format( Colors.YELLOW +
-                                "{0} - Invalid signature in justification for Instance {1}, Round {2}, ignoring" + Colors.RESET,
-                                config.getId(), consensusInstance, round));
-                return false;
-            }
-        }
-
-        Optional<String> prepareQuorumValue = Optional.empty();
+        // The justification is the PREPARE quorum certificate piggybacked to the Round-Change message
+        // (its signatures were already checked by verifyJustification)
         Optional<RoundChangeMessage> highestRoundChangeMessage = roundChangeMessages.highestPrepared(instance, round);
-        // Check if the received Justification messages quorum value matches the Round-Change quorum proposed value
-        if (highestRoundChangeMessage.isPresent())
-            prepareQuorumValue = justificationMessages.hasValidPrepareQuorum(
-                    nodeId,
-                    instance,
-                    highestRoundChangeMessage.get().getPreparedRound());
-
-        return prepareQuorumValue.isPresent() &&
-                prepareQuorumValue.get().equals(highestRoundChangeMessage.get().getPreparedValue());
+        if (justification == null || highestRoundChangeMessage.isEmpty()
+                || Objects.equals(highestRoundChangeMessage.get().getPreparedValue(), "")
+                || !verifyJustification(justification))
+            return false;
+
+        // Check if the certified quorum value matches the Round-Change quorum proposed value
+        // PREPARE messages carry the digest of the prepared block
+        String preparedDigest = Block.fromJson(highestRoundChangeMessage.get().getPreparedValue()).getHash();
+        return justification.getConsensusInstance() == instance
+                && justification.getRound() == highestRoundChangeMessage.get().getPreparedRound()
+                && justification.getValue().equals(new PrepareMessage(preparedDigest).toJson());
     }
 
     /**
@@ -823,19 +1637,58 @@ public class NodeService implements UDPService {
      * @param message ConsensusMessage to be handled
      * @throws Exception exception
      */
-    public synchronized void uponRoundChange(ConsensusMessage message) throws Exception {
+    public void uponRoundChange(ConsensusMessage message) throws Exception {
 
         int messageConsensusInstance = message.getConsensusInstance();
         int messageRound = message.getRound();
         String senderId = message.getSenderId();
-        InstanceInfo instance = this.instanceInfo.get(messageConsensusInstance);
-        int currentRound = instance.getCurrentRound();
 
         LOGGER.log(Level.INFO,
                 MessageFormat.format(
                         "{0} - Received ROUND-CHANGE message from {1}: Consensus Instance {2}, Round {3}",
                         config.getId(), senderId, messageConsensusInstance, messageRound));
 
+        // Upon rule -> instance was already decided and pruned, send the commit quorum
+        // to the sender of the Round Change message
+        if (messageConsensusInstance <= prunedConsensusInstance) {
+            sendCommitCertificate(senderId, messageConsensusInstance);
+            return;
+        }
+
+        InstanceInfo instance = this.instanceInfo.get(messageConsensusInstance);
+        if (instance == null) {
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format(Colors.YELLOW +
+                                    "{0} - Received ROUND-CHANGE message from {1} for unknown Consensus Instance {2}, ignoring" + Colors.RESET,
+                            config.getId(), senderId, messageConsensusInstance));
+            return;
+        }
+
+        // The signatures of the justification are checked before locking the instance
+        if (!verifyJustification(message.getJustification()))
+            return;
+
+        instance.getLock().lock();
+        try {
+            roundChangeLocked(message, instance);
+        } finally {
+            instance.getLock().unlock();
+        }
+    }
+
+    /**
+     * Rest of the ROUND-CHANGE upon rules, with the lock of the instance held
+     *
+     * @param message ROUND-CHANGE message
+     * @param instance state of the instance
+     * @throws Exception exception
+     */
+    private void roundChangeLocked(ConsensusMessage message, InstanceInfo instance) throws Exception {
+        int messageConsensusInstance = message.getConsensusInstance();
+        int messageRound = message.getRound();
+        String senderId = message.getSenderId();
+        int currentRound = instance.getCurrentRound();
+
         roundChangeMessages.addMessage(message);
         Optional<RoundChangeMessage> roundChangeQuorum;
 
@@ -850,11 +1703,7 @@ public class NodeService implements UDPService {
 
         // Upon rule -> if round was already decided, send commit quorum to sender of the Round Change message
         if (instance.getCommittedRound() > -1) {
-            Optional<List<ConsensusMessage>> set = commitMessages.getCommitMessages(messageConsensusInstance, instance.getCommittedRound());
-            if (set.isPresent())
-                for ( ConsensusMessage consensusMessage : set.get()) {
-                    link.send(senderId, consensusMessage);
-                }
+            sendCommitCertificate(senderId, messageConsensusInstance);
         }
 
         // Any upon rule can be triggered at most once per round
@@ -865,22 +1714,31 @@ public class NodeService implements UDPService {
                             config.getId(), messageConsensusInstance, messageRound));
         }
         else {
-            roundChangeQuorum = roundChangeMessages.hasCorrectRoundChangeInSet(messageConsensusInstance, currentRound);
+            Optional<Integer> minRound = roundChangeMessages.hasCorrectRoundChangeInSet(messageConsensusInstance, currentRound);
 
             // Upon rule -> if received a valid set of (f + 1) broadcast ROUND-CHANGE with round rmin
-            if(roundChangeQuorum.isPresent() && instance.getPreparedRound() < currentRound) {
-                instance.setLatestRoundChangeBroadcast(currentRound);
+            if(minRound.isPresent() && instance.getPreparedRound() < currentRound) {
                 // rmin <= rj
-                instance.setCurrentRound(roundChangeQuorum.get().getPreparedRound());
+                currentRound = minRound.get();
+                instance.setLatestRoundChangeBroadcast(currentRound);
+                instance.setCurrentRound(currentRound);
+
+                // Same ROUND-CHANGE as the one sent when the timer expires, with the values this node prepared
+                Block preparedBlock = instance.getPreparedBlock();
+                RoundChangeMessage roundChangeMessage = new RoundChangeMessage(
+                        preparedBlock != null ? instance.getPreparedRound() : -1,
+                        preparedBlock != null ? preparedBlock.toJson() : "");
 
                 ConsensusMessage broadcastMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.ROUND_CHANGE)
                         .setConsensusInstance(message.getConsensusInstance())
-                        .setRound(roundChangeQuorum.get().getPreparedRound())
-                        .setMessage(roundChangeQuorum.get().toJson())
-                        .setJustification(message.getJustification())
+                        .setRound(currentRound)
+                        .setMessage(roundChangeMessage.toJson())
                         .build();
+                broadcastMessage.setJustification(instance.getPrepareCertificate());
+
                 // Broadcast with self signature and senderId
                 this.link.broadcast(broadcastMessage);
+                roundTimers.restart(messageConsensusInstance, currentRound);
             }
         }
 
@@ -896,7 +1754,7 @@ public class NodeService implements UDPService {
         // if it has, JustifyRoundChange
         roundChangeQuorum = roundChangeMessages.hasValidRoundChangeQuorum(messageConsensusInstance, currentRound);
 
-        List<ConsensusMessage> receivedJustification = message.getJustification();
+        QuorumCertificate receivedJustification = message.getJustification();
 
         // Upon rule -> Check if it has received a round change quorum
         if (roundChangeQuorum.isPresent() &&
@@ -920,10 +1778,11 @@ public class NodeService implements UDPService {
             // otherwise the value is to be created in the startConsensus function
             if (config.isLeader()) {
                 if (value == null) {
-                    List<Transaction> transactionsForBlock = getValidTransactions();
+                    List<Transaction> transactionsForBlock = getValidTransactions(messageConsensusInstance).getTransactions();
                     // creates new block
                     value = createBlock(config.getId(), transactionsForBlock);
                 }
+                reservedTransactions.put(messageConsensusInstance, value.getTransactions());
                 // Start a new consensus by broadcasting a PRE-PREPARE message
                 LOGGER.log(Level.INFO,
                     MessageFormat.format("{0} - Node is leader, sending PRE-PREPARE message", config.getId()));
@@ -940,24 +1799,52 @@ public class NodeService implements UDPService {
             }
             // Reset the timer of the consensus for this node
             // because it is trying for a new round
-            this.timerConsensus.cancel();
-            this.timerConsensus.purge();
-
-            this.timerConsensus = new Timer();
-            timerConsensus.schedule(new Node.RoundTimer(), timerMillis);
+            roundTimers.restart(messageConsensusInstance, currentRound);
         }
     }
 
     /**
-     * Called whenever timer has expired, send a request for a round change to all other nodes
+     * Called whenever the timer of a round has expired, send a request for a round change to all other nodes
+     *
+     * @param timerInstance consensus instance whose timer expired
+     * @param timerRound round the timer was counting
      */
-    public synchronized void uponTimerExpiry() {
+    public void uponTimerExpiry(int timerInstance, int timerRound) {
         /*  ri ← ri + 1
             set timeri to running and expire after t(ri)
             broadcast 〈ROUND-CHANGE, λi, ri, pri, pvi〉
         */
 
         InstanceInfo existingConsensus = this.instanceInfo.get(timerInstance);
+        if (existingConsensus == null)
+            return;
+
+        int round;
+        existingConsensus.getLock().lock();
+        try {
+            // Decided, or moved to another round meanwhile (that one has its own timeout)
+            if (existingConsensus.getCommittedRound() > -1 || existingConsensus.getCurrentRound() != timerRound)
+                return;
+
+            System.out.println("======== TIMER EXPIRED ========\n\n");
+            round = roundTimeoutLocked(timerInstance, existingConsensus);
+        } finally {
+            existingConsensus.getLock().unlock();
+        }
+
+        // Reset the timer of the consensus for this node
+        // because it is trying for a new round, which lasts longer
+        roundTimers.restart(timerInstance, round);
+    }
+
+    /**
+     * Moves a consensus instance to the next round, with the lock of the instance held
+     *
+     * @param timerInstance consensus instance whose timer expired
+     * @param existingConsensus state of the instance
+     * @return int - new round of the instance
+     */
+    private int roundTimeoutLocked(int timerInstance, InstanceInfo existingConsensus) {
 
         // This needs to be either a string or an empty string, if this were to be null,
         // it would be mistaken for the null return of some <Optional>String return type functions
@@ -973,7 +1860,7 @@ public class NodeService implements UDPService {
 
         LOGGER.log(Level.INFO,
                 MessageFormat.format("{0} - Broadcast ROUND_CHANGE message: Consensus Instance {1}, NOW Round {2}",
-                        config.getId(), consensusInstance, round));
+                        config.getId(), timerInstance, round));
 
         RoundChangeMessage roundChangeMessage = new RoundChangeMessage(preparedRound, preparedValue);
 
@@ -983,23 +1870,11 @@ public class NodeService implements UDPService {
                 .setMessage(roundChangeMessage.toJson())
                 .build();
 
-        // Add any Prepare messages as justification
-        Optional<List<ConsensusMessage>> justificationMessages =
-                prepareMessages.getPrepareMessages(consensusInstance.get(), existingConsensus.getPreparedRound());
-
-        if (justificationMessages.isPresent()) {
-            consensusMessage.setJustification(justificationMessages.get());
-        }
+        // Add the Prepare quorum as justification
+        consensusMessage.setJustification(existingConsensus.getPrepareCertificate());
 
         this.link.broadcast(consensusMessage);
-
-        // Reset the timer of the consensus for this node
-        // because it is trying for a new round
-        this.timerConsensus.cancel();
-        this.timerConsensus.purge();
-
-        this.timerConsensus = new Timer();
-        timerConsensus.schedule(new Node.RoundTimer(), timerMillis);
+        return round;
     }
 
     @Override
@@ -1012,8 +1887,17 @@ public class NodeService implements UDPService {
 
                         Message message = link.receive();
 
-                        // Separate thread to handle each message
-                        new Thread(() -> {
+                        // Catch-up messages have a thread of their own, they never wait for the consensus
+                        if (message.getType() == Message.Type.CATCH_UP_REQUEST
+                                || message.getType() == Message.Type.CATCH_UP_REPLY) {
+                            catchUp.submit((ConsensusMessage) message);
+                            continue;
+                        }
+                        if (message instanceof ConsensusMessage consensusMessage)
+                            catchUp.observe(consensusMessage);
+
+                        // Separate thread (or the event loop) to handle each message
+                        dispatch(() -> {
                             switch (message.getType()) {
 
                                 case PRE_PREPARE -> {
@@ -1068,7 +1952,7 @@ public class NodeService implements UDPService {
                                                     config.getId(), message.getSenderId()));
                             }
 
-                        }).start();
+                        });
                     }
                 } catch (IOException | ClassNotFoundException e) {
                     e.printStackTrace();
@@ -0,0 +1,97 @@
+package pt.ulisboa.tecnico.hdsledger.service.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.HashedWheelTimer;
+
+// Round timers of the consensus instances, kept on the shared timer wheel
+// Every running instance has its own timeout, armed again for each of its rounds.
+// Round r lasts t(r) = roundTimeoutMillis * 2^(r - 1) (capped at maxRoundTimeoutMillis), IBFT needs t(r)
+// to grow so that, after GST, correct nodes eventually stay long enough in the same round to decide
+public class RoundTimerService {
+
+    /** Called from the timer thread when a round of an instance expires */
+    public interface ExpiryHandler {
+        void onExpiry(int instance, int round);
+    }
+
+    /** Timer of a running instance */
+    private class InstanceTimer {
+        private final HashedWheelTimer.Timeout timeout;
+        private volatile int round;
+
+        private InstanceTimer(int instance) {
+            this.timeout = timer.newTimeout(() -> handler.onExpiry(instance, round));
+        }
+    }
+
+    private final HashedWheelTimer timer;
+    /** Duration of the first round */
+    private final long roundTimeoutMillis;
+    /** Longest duration of a round */
+    private final long maxRoundTimeoutMillis;
+    private final ExpiryHandler handler;
+    /** Consensus instance -> Its timer, only while it is running */
+    private final Map<Integer, InstanceTimer> timers = new ConcurrentHashMap<>();
+
+    public RoundTimerService(HashedWheelTimer timer, long roundTimeoutMillis, long maxRoundTimeoutMillis,
+            ExpiryHandler handler) {
+        this.timer = timer;
+        this.roundTimeoutMillis = Math.max(1, roundTimeoutMillis);
+        this.maxRoundTimeoutMillis = Math.max(this.roundTimeoutMillis, maxRoundTimeoutMillis);
+        this.handler = handler;
+    }
+
+    /**
+     * @param round round of an instance
+     * @return long - t(round), in milliseconds
+     */
+    public long getTimeout(int round) {
+        long timeout = roundTimeoutMillis;
+        for (int r = 1; r < round && timeout < maxRoundTimeoutMillis; r++)
+            timeout <<= 1;
+        return Math.min(maxRoundTimeoutMillis, timeout);
+    }
+
+    /**
+     * (Re)starts the timer of an instance for a round, replacing the previous one
+     *
+     * @param instance consensus instance
+     * @param round round the instance is in
+     */
+    public void start(int instance, int round) {
+        InstanceTimer instanceTimer = timers.computeIfAbsent(instance, InstanceTimer::new);
+        instanceTimer.round = round;
+        instanceTimer.timeout.reschedule(getTimeout(round));
+    }
+
+    /**
+     * Restarts the timer of an instance only if it is running
+     *
+     * @param instance consensus instance
+     * @param round round the instance is in
+     */
+    public void restart(int instance, int round) {
+        InstanceTimer instanceTimer = timers.get(instance);
+        if (instanceTimer == null)
+            return;
+        instanceTimer.round = round;
+        instanceTimer.timeout.reschedule(getTimeout(round));
+    }
+
+    /**
+     * Stops the timer of an instance, once it is decided
+     *
+     * @param instance consensus instance
+     */
+    public void stop(int instance) {
+        InstanceTimer instanceTimer = timers.remove(instance);
+        if (instanceTimer != null)
+            instanceTimer.timeout.cancel();
+    }
+
+    public boolean isRunning(int instance) {
+        return timers.containsKey(instance);
+    }
+}
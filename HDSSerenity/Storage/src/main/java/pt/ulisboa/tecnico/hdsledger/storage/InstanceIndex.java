@@ -0,0 +1,98 @@
+package pt.ulisboa.tecnico.hdsledger.storage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Memory-mapped index from consensus instance to the position of its record in the log
+// Entries are fixed-size and stored by instance, so a lookup is a single read of the mapping
+// The index can always be rebuilt from the segments, it only saves scanning them on startup
+public class InstanceIndex implements AutoCloseable {
+
+    /** Identifies an index file */
+    private static final int MAGIC = 0x48445349;
+    /** Magic number followed by the number of committed entries */
+    private static final int HEADER_SIZE = 8;
+    /** First instance of the segment followed by the position in the segment */
+    private static final int ENTRY_SIZE = 12;
+    /** Entries mapped when the index is created, the mapping doubles when full */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final FileChannel channel;
+    /** Replaced when the index grows, readers always see a complete mapping */
+    private volatile MappedByteBuffer buffer;
+    /** Number of entries that fit in the current mapping */
+    private int capacity;
+
+    public InstanceIndex(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        long entries = Math.max(0, (channel.size() - HEADER_SIZE) / ENTRY_SIZE);
+        map((int) Math.max(INITIAL_CAPACITY, entries));
+
+        // A new or foreign file has no valid entries
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, 0);
+        }
+    }
+
+    private void map(int capacity) throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+        this.capacity = capacity;
+    }
+
+    private static int offsetOf(int instance) {
+        return HEADER_SIZE + (instance - 1) * ENTRY_SIZE;
+    }
+
+    /**
+     * @return int - number of committed entries, they cover instances 1 to count
+     */
+    public int getCount() {
+        return buffer.getInt(4);
+    }
+
+    /**
+     * Writes the entry of an instance, it only counts once committed
+     *
+     * @param instance consensus instance (starts at 1)
+     * @param segment first instance of the segment holding the record
+     * @param position position of the record in the segment
+     */
+    public void put(int instance, int segment, long position) throws IOException {
+        if (instance > capacity)
+            map(Math.max(instance, capacity * 2));
+
+        MappedByteBuffer mapping = buffer;
+        mapping.putInt(offsetOf(instance), segment);
+        mapping.putLong(offsetOf(instance) + 4, position);
+    }
+
+    /**
+     * Marks the entries up to count as valid and flushes them
+     *
+     * @param count number of valid entries
+     */
+    public void commit(int count) {
+        buffer.putInt(4, count);
+        buffer.force();
+    }
+
+    public int getSegment(int instance) {
+        return buffer.getInt(offsetOf(instance));
+    }
+
+    public long getPosition(int instance) {
+        return buffer.getLong(offsetOf(instance) + 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,367 @@
+package pt.ulisboa.tecnico.hdsledger.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+// Append-only log with one record per consensus instance, split in segment files
+// Record: payload length | instance | CRC32 of instance and payload | payload
+// Appends are written and fsynced by a single writer thread, every record waiting when
+// it wakes up shares the same fsync (group commit)
+// A write that fails may leave part of a batch on disk, so the log stops taking records after it:
+// the records after a hole could never be read, a restart drops the torn tail
+public class SegmentLog implements AutoCloseable {
+
+    private static final CustomLogger LOGGER = new CustomLogger(SegmentLog.class.getName());
+
+    /** Segments are rolled once they reach this size */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_FILE = "instances.idx";
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** Record waiting to be written */
+    private static class PendingRecord {
+        private final int instance;
+        private final byte[] payload;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private PendingRecord(int instance, byte[] payload) {
+            this.instance = instance;
+            this.payload = payload;
+        }
+    }
+
+    /** Tells the writer thread to stop */
+    private static final PendingRecord STOP = new PendingRecord(-1, new byte[0]);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final InstanceIndex index;
+    /** First instance of each segment -> Segment file */
+    private final Map<Integer, FileChannel> segments = new ConcurrentSkipListMap<>();
+    /** Records waiting for the writer thread */
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    /** Segment being written (only used by the writer thread after recovery) */
+    private FileChannel activeSegment;
+    private int activeSegmentId;
+    private long activePosition;
+
+    /** Last instance accepted by append */
+    private int lastAppended;
+    /** Last instance that is durable on disk */
+    private volatile int lastDurable;
+    /** Whether a write failed, no record is written after it */
+    private volatile boolean failed = false;
+
+    public SegmentLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public SegmentLog(Path directory, long segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(directory);
+            this.index = new InstanceIndex(directory.resolve(INDEX_FILE));
+            recover();
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotOpenStorage);
+        }
+
+        this.writer = new Thread(this::writeLoop, "segment-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return int - last consensus instance that is durable on disk (0 if the log is empty)
+     */
+    public int getLastInstance() {
+        return lastDurable;
+    }
+
+    /**
+     * Queues a record to be written, instances must be appended in order without gaps
+     *
+     * @param instance consensus instance of the record
+     * @param payload record contents
+     * @return CompletableFuture<Void> - completed once the record is fsynced, failed if the log failed before
+     */
+    public synchronized CompletableFuture<Void> append(int instance, byte[] payload) {
+        if (failed)
+            return CompletableFuture.failedFuture(new HDSSException(ErrorMessage.CannotWriteStorage));
+        if (instance != lastAppended + 1)
+            throw new HDSSException(ErrorMessage.OutOfOrderStorageRecord);
+
+        lastAppended = instance;
+        PendingRecord record = new PendingRecord(instance, payload);
+        pending.add(record);
+        return record.durable;
+    }
+
+    /**
+     * Reads the record of a durable instance
+     *
+     * @param instance consensus instance
+     * @return byte[] - record contents, null if the instance is not durable yet
+     */
+    public byte[] read(int instance) {
+        if (instance < 1 || instance > lastDurable)
+            return null;
+
+        try {
+            byte[] payload = readRecord(segments.get(index.getSegment(instance)), index.getPosition(instance), instance);
+            if (payload == null)
+                throw new HDSSException(ErrorMessage.CannotReadStorage);
+            return payload;
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotReadStorage);
+        }
+    }
+
+    /**
+     * Reads the durable records in instance order
+     *
+     * @param fromInstance first instance to read
+     * @param consumer receives the instance and the contents of each record
+     */
+    public void replay(int fromInstance, BiConsumer<Integer, byte[]> consumer) {
+        int lastInstance = lastDurable;
+        for (int instance = Math.max(1, fromInstance); instance <= lastInstance; instance++) {
+            consumer.accept(instance, read(instance));
+        }
+    }
+
+    /**
+     * Rebuilds the index from the last entry it has and drops a torn tail left by a crash
+     */
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                int segment = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(segment, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+
+        // Start from the last indexed record, only the records after it have to be scanned
+        int count = index.getCount();
+        int segment = segments.isEmpty() ? 1 : segments.keySet().iterator().next();
+        long position = 0;
+        if (count > 0 && segments.containsKey(index.getSegment(count))) {
+            byte[] last = readRecord(segments.get(index.getSegment(count)), index.getPosition(count), count);
+            if (last != null) {
+                segment = index.getSegment(count);
+                position = index.getPosition(count) + RECORD_HEADER_SIZE + last.length;
+            } else {
+                count = 0;
+            }
+        } else {
+            count = 0;
+        }
+
+        int scanned = 0;
+        int expected = count + 1;
+        boolean torn = false;
+        for (int id : new ArrayList<>(segments.keySet())) {
+            if (id < segment)
+                continue;
+
+            FileChannel channel = segments.get(id);
+            // Segments after a torn record or a gap can't be trusted
+            if (torn || (id != segment && id != expected)) {
+                torn = true;
+                channel.close();
+                segments.remove(id);
+                Files.delete(segmentPath(id));
+                continue;
+            }
+            if (id != segment)
+                position = 0;
+
+            byte[] payload;
+            while ((payload = readRecord(channel, position, expected)) != null) {
+                index.put(expected, id, position);
+                position += RECORD_HEADER_SIZE + payload.length;
+                expected++;
+                scanned++;
+            }
+
+            if (position < channel.size()) {
+                torn = true;
+                LOGGER.log(Level.INFO, MessageFormat.format("Dropping torn tail of segment {0} at position {1}",
+                        id, position));
+                channel.truncate(position);
+                channel.force(true);
+            }
+            segment = id;
+        }
+        index.commit(expected - 1);
+
+        lastAppended = lastDurable = expected - 1;
+        if (segments.isEmpty()) {
+            openSegment(expected);
+        } else {
+            activeSegmentId = segment;
+            activeSegment = segments.get(segment);
+            activePosition = activeSegment.size();
+        }
+
+        LOGGER.log(Level.INFO, MessageFormat.format("Opened block log at {0} with {1} instances ({2} scanned)",
+                directory, lastDurable, scanned));
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%010d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private void openSegment(int firstInstance) throws IOException {
+        activeSegment = FileChannel.open(segmentPath(firstInstance), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSegmentId = firstInstance;
+        activePosition = 0;
+        segments.put(firstInstance, activeSegment);
+    }
+
+    private static int checksum(int instance, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(0, instance));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                return false;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * @return byte[] - contents of the record, null if it is incomplete, corrupted or of another instance
+     */
+    private static byte[] readRecord(FileChannel channel, long position, int instance) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (channel == null || !readFully(channel, header, position))
+            return null;
+
+        int length = header.getInt();
+        int recordInstance = header.getInt();
+        int recordChecksum = header.getInt();
+        if (length < 0 || recordInstance != instance || position + RECORD_HEADER_SIZE + length > channel.size())
+            return null;
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(channel, payload, position + RECORD_HEADER_SIZE)
+                || checksum(instance, payload.array()) != recordChecksum)
+            return null;
+
+        return payload.array();
+    }
+
+    private void write(PendingRecord record) throws IOException {
+        int size = RECORD_HEADER_SIZE + record.payload.length;
+        if (activePosition > 0 && activePosition + size > segmentBytes) {
+            activeSegment.force(false);
+            openSegment(record.instance);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size)
+                .putInt(record.payload.length)
+                .putInt(record.instance)
+                .putInt(checksum(record.instance, record.payload))
+                .put(record.payload)
+                .flip();
+        while (buffer.hasRemaining()) {
+            activeSegment.write(buffer, activePosition + buffer.position());
+        }
+
+        index.put(record.instance, activeSegmentId, activePosition);
+        activePosition += size;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            pending.drainTo(batch);
+            stopping = batch.remove(STOP);
+            if (batch.isEmpty())
+                continue;
+
+            // Records queued before the failure can't be written after the hole it left
+            if (failed) {
+                batch.forEach(record -> record.durable.completeExceptionally(
+                        new HDSSException(ErrorMessage.CannotWriteStorage)));
+                batch.clear();
+                continue;
+            }
+
+            try {
+                for (PendingRecord record : batch) {
+                    write(record);
+                }
+                // One fsync for the whole batch
+                activeSegment.force(false);
+                index.commit(batch.get(batch.size() - 1).instance);
+                lastDurable = batch.get(batch.size() - 1).instance;
+                batch.forEach(record -> record.durable.complete(null));
+            } catch (IOException e) {
+                failed = true;
+                LOGGER.log(Level.INFO, MessageFormat.format("Failed to write to the block log, no longer writing to it: {0}",
+                        e.getMessage()));
+                batch.forEach(record -> record.durable.completeExceptionally(
+                        new HDSSException(ErrorMessage.CannotWriteStorage)));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the queued records and closes the files
+     */
+    @Override
+    public void close() throws IOException {
+        pending.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        index.close();
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package pt.ulisboa.tecnico.hdsledger.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+// Snapshots of the replicated state, one file per snapshot named after the consensus instance it was taken at
+// File: payload length | instance | CRC32 of instance and payload | payload
+// Snapshots are encoded and written by a single background thread, to a temporary file that is fsynced
+// and then renamed, so a crash leaves the previous snapshots untouched. Only the newest ones are kept
+public class SnapshotStore implements AutoCloseable {
+
+    private static final CustomLogger LOGGER = new CustomLogger(SnapshotStore.class.getName());
+
+    /** Number of snapshots kept, the older ones are deleted */
+    public static final int DEFAULT_RETAINED = 2;
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int HEADER_SIZE = 12;
+
+    private final Path directory;
+    private final int retained;
+    /** Encodes and writes the snapshots, one at a time */
+    private final ExecutorService writer;
+
+    public SnapshotStore(Path directory) {
+        this(directory, DEFAULT_RETAINED);
+    }
+
+    public SnapshotStore(Path directory, int retained) {
+        this.directory = directory;
+        this.retained = Math.max(1, retained);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotOpenStorage);
+        }
+
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a snapshot to be written, the caller is never blocked
+     *
+     * @param instance consensus instance the snapshot was taken at
+     * @param payload encodes the snapshot, called on the writer thread
+     * @return CompletableFuture<Void> - completed once the snapshot is durable
+     */
+    public CompletableFuture<Void> write(int instance, Supplier<byte[]> payload) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                writeFile(instance, payload.get());
+                deleteOlderThan(instance);
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, MessageFormat.format("Failed to write snapshot {0}: {1}",
+                        instance, e.getMessage()));
+                throw new HDSSException(ErrorMessage.CannotWriteStorage);
+            }
+        }, writer);
+    }
+
+    /**
+     * @return List<Integer> - instances of the stored snapshots, newest first
+     */
+    public List<Integer> getInstances() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SNAPSHOT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length())))
+                    .sorted(Comparator.reverseOrder())
+                    .toList();
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.CannotReadStorage);
+        }
+    }
+
+    /**
+     * @param instance consensus instance of the snapshot
+     * @return byte[] - contents of the snapshot, null if it is missing, incomplete or corrupted
+     */
+    public byte[] read(int instance) {
+        try (FileChannel channel = FileChannel.open(snapshotPath(instance), StandardOpenOption.READ)) {
+            ByteBuffer file = ByteBuffer.allocate((int) channel.size());
+            while (file.hasRemaining() && channel.read(file) >= 0);
+            file.flip();
+            if (file.remaining() < HEADER_SIZE)
+                return null;
+
+            int length = file.getInt();
+            int fileInstance = file.getInt();
+            int fileChecksum = file.getInt();
+            if (length != file.remaining() || fileInstance != instance)
+                return null;
+
+            byte[] payload = new byte[length];
+            file.get(payload);
+            return checksum(instance, payload) == fileChecksum ? payload : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Path snapshotPath(int instance) {
+        return directory.resolve(String.format("%010d%s", instance, SNAPSHOT_SUFFIX));
+    }
+
+    private static int checksum(int instance, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(0, instance));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void writeFile(int instance, byte[] payload) throws IOException {
+        Path temporary = directory.resolve(snapshotPath(instance).getFileName() + TEMPORARY_SUFFIX);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(instance)
+                .putInt(checksum(instance, payload))
+                .put(payload)
+                .flip();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath(instance), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteOlderThan(int instance) throws IOException {
+        List<Integer> instances = getInstances();
+        for (int old : instances.subList(Math.min(retained, instances.size()), instances.size())) {
+            if (old < instance)
+                Files.deleteIfExists(snapshotPath(old));
+        }
+    }
+
+    /**
+     * Writes the queued snapshots and stops the writer thread
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
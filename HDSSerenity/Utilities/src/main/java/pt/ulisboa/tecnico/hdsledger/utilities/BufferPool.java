@@ -0,0 +1,64 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool of direct buffers of a fixed size, reused instead of allocating (and zeroing) a buffer per datagram
+// Buffers can be taken and given back by any thread. At most maxBuffers are ever allocated: once every
+// one of them is taken, acquire waits for one to be given back, so the memory held is bounded
+public class BufferPool {
+
+    /** Capacity of every buffer */
+    private final int bufferSize;
+    /** Maximum number of buffers allocated, taken or idle */
+    private final int maxBuffers;
+    /** Idle buffers */
+    private final LinkedBlockingQueue<ByteBuffer> buffers = new LinkedBlockingQueue<>();
+    /** Number of buffers allocated so far */
+    private final AtomicInteger allocated = new AtomicInteger(0);
+
+    /**
+     * @param bufferSize capacity of every buffer
+     * @param maxBuffers maximum number of buffers allocated, taken or idle
+     */
+    public BufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(1, maxBuffers);
+    }
+
+    /**
+     * Takes an idle buffer, allocates one if every buffer is taken and the limit was not reached,
+     * otherwise waits for a buffer to be given back
+     *
+     * @return ByteBuffer - cleared buffer, owned by the caller until it is released
+     * @throws InterruptedException if interrupted while waiting for a buffer
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            if (allocated.getAndIncrement() < maxBuffers)
+                return ByteBuffer.allocateDirect(bufferSize);
+            allocated.decrementAndGet();
+            buffer = buffers.take();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back, the caller must not use it (or any view of it) afterwards
+     *
+     * @param buffer buffer taken from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return int - number of idle buffers
+     */
+    public int size() {
+        return buffers.size();
+    }
+}
@@ -4,8 +4,17 @@ public enum ErrorMessage {
     ConfigFileNotFound("The configuration file is not available at the path supplied"),
     ConfigFileFormat("The configuration file has wrong syntax"),
     NoSuchNode("Can't send a message to a non existing node"),
+    NoSuchAccount("Can't use the balance of a non existing account"),
     SocketSendingError("Error while sending message"),
-    CannotOpenSocket("Error while opening socket");
+    CannotOpenSocket("Error while opening socket"),
+    CannotLoadKey("Error while loading a key from the key infrastructure"),
+    CannotEncodeMessage("Error while encoding message"),
+    CannotDecodeMessage("Received message is malformed"),
+    CannotCreateSession("Error while generating the session keys"),
+    CannotOpenStorage("Error while opening the block storage"),
+    CannotWriteStorage("Error while writing to the block storage"),
+    CannotReadStorage("Error while reading from the block storage"),
+    OutOfOrderStorageRecord("Blocks must be stored in consensus instance order");
 
     private final String message;
 
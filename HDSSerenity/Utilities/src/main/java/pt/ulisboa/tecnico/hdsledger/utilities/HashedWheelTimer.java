@@ -0,0 +1,245 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Timer that keeps pending tasks in hierarchical wheels of buckets, all driven by a single thread
+// The first wheel has one bucket per tick, every bucket of the next wheel spans a whole turn of the
+// previous one. When the bucket of an outer wheel comes up its timeouts cascade to the inner wheels,
+// so long timeouts are only moved a few times and short ones are never looked at before they expire.
+// Timeouts are linked in their bucket: cancelling or rescheduling one only unlinks it, without allocating.
+// Tasks run in the timer thread, so they should only do short work (or hand it to an executor)
+public class HashedWheelTimer {
+
+    /** Number of wheels, with 64 buckets of 10 ms they cover more than a day */
+    private static final int LEVELS = 4;
+
+    /** Timer shared by every component of the process */
+    private static HashedWheelTimer shared;
+
+    /** Duration of each tick of the wheel */
+    private final long tickMillis;
+    /** Bits of the tick used by each wheel */
+    private final int bits;
+    /** Buckets per wheel - 1 */
+    private final int mask;
+    /** Wheels, from the one with a bucket per tick to the outermost one */
+    private final Bucket[][] wheels;
+    /** Timeouts that expired on the current tick, run outside the lock */
+    private final List<Timeout> expired = new ArrayList<>();
+    /** Thread that advances the wheel */
+    private final Thread worker;
+    /** Number of ticks since the timer started, guarded by this */
+    private long tick = 0;
+
+    private volatile boolean running = true;
+
+    /** Doubly linked list of the timeouts of a bucket */
+    private static class Bucket {
+        private Timeout head;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null)
+                head.previous = timeout;
+            head = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else
+                head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+
+    public static class Timeout {
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private long expiryTick;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+        private volatile boolean cancelled = false;
+
+        private Timeout(HashedWheelTimer timer, Runnable task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        public void cancel() {
+            timer.unlink(this);
+        }
+
+        /**
+         * Schedules the task again, replacing the pending expiry if there is one
+         *
+         * @param delayMillis delay in milliseconds (rounded up to the tick)
+         */
+        public void reschedule(long delayMillis) {
+            timer.link(this, delayMillis);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        this.bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(2, wheelSize) - 1));
+        this.mask = (1 << bits) - 1;
+        this.wheels = new Bucket[LEVELS][1 << bits];
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; i++)
+                wheel[i] = new Bucket();
+        }
+
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @return HashedWheelTimer - timer shared by every component of the process (ticks of 10 ms)
+     */
+    public static synchronized HashedWheelTimer shared() {
+        if (shared == null)
+            shared = new HashedWheelTimer("timer-wheel", 10, 64);
+        return shared;
+    }
+
+    /**
+     * Schedules a task to run once after the given delay
+     *
+     * @param task task to run
+     * @param delayMillis delay in milliseconds (rounded up to the tick)
+     * @return Timeout - handle that can be used to cancel or reschedule the task
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task);
+        link(timeout, delayMillis);
+        return timeout;
+    }
+
+    /**
+     * Creates a timeout that is not scheduled yet, to be armed (and armed again) with reschedule
+     *
+     * @param task task to run
+     * @return Timeout - unscheduled timeout
+     */
+    public Timeout newTimeout(Runnable task) {
+        return new Timeout(this, task);
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private synchronized void link(Timeout timeout, long delayMillis) {
+        if (timeout.bucket != null)
+            timeout.bucket.remove(timeout);
+
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        timeout.expiryTick = tick + ticks;
+        timeout.cancelled = false;
+        place(timeout);
+    }
+
+    private synchronized void unlink(Timeout timeout) {
+        timeout.cancelled = true;
+        if (timeout.bucket != null)
+            timeout.bucket.remove(timeout);
+    }
+
+    /**
+     * Puts a timeout in the innermost wheel whose turn still reaches its expiry
+     */
+    private void place(Timeout timeout) {
+        long delta = Math.max(0, timeout.expiryTick - tick);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >> (bits * (level + 1)) != 0)
+            level++;
+
+        // Beyond the outermost wheel, wait in its farthest bucket and cascade again from there
+        long placedTick = Math.min(timeout.expiryTick, tick + (1L << (bits * LEVELS)) - 1);
+        wheels[level][(int) ((placedTick >> (bits * level)) & mask)].add(timeout);
+    }
+
+    /**
+     * Moves the timeouts of an outer bucket to the inner wheels
+     */
+    private void cascade(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        bucket.head = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    private void advance() {
+        tick++;
+
+        // Outer wheels first, their timeouts may land in the buckets of this tick
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (bits * level)) - 1)) == 0)
+                cascade(wheels[level][(int) ((tick >> (bits * level)) & mask)]);
+        }
+
+        Bucket bucket = wheels[0][(int) (tick & mask)];
+        while (bucket.head != null) {
+            Timeout timeout = bucket.head;
+            bucket.remove(timeout);
+            expired.add(timeout);
+        }
+    }
+
+    private void run() {
+        long nextTick = System.nanoTime();
+        List<Timeout> due = new ArrayList<>();
+        while (running) {
+            nextTick += tickMillis * 1_000_000;
+            long sleepNanos = nextTick - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                advance();
+                due.addAll(expired);
+                expired.clear();
+            }
+
+            for (Timeout timeout : due) {
+                // Cancelled or rescheduled after it was taken from the wheel
+                synchronized (this) {
+                    if (timeout.isCancelled() || timeout.bucket != null)
+                        continue;
+                }
+                try {
+                    timeout.task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            due.clear();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps every RSA key of the system in memory
+// Keys are read from the KeyInfrastructure folder once and then served from here
+public class KeyRing {
+
+    /** Folder where RSAKeyGenerator writes the keys */
+    private static final String KEY_DIRECTORY = "../KeyInfrastructure/";
+
+    /** Process id -> private key */
+    private static final Map<String, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+    /** Process id -> public key */
+    private static final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+
+    /** Signature engines are not thread-safe, so each thread keeps its own */
+    private static final ThreadLocal<Signature> signatureEngine = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /** Same as above, for the digest applied before signing */
+    private static final ThreadLocal<MessageDigest> digestEngine = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private KeyRing() {}
+
+    private static Path getPrivatePath(String stringId) {
+        return Path.of(KEY_DIRECTORY + "id" + stringId + ".key");
+    }
+
+    private static Path getPublicPath(String stringId) {
+        return Path.of(KEY_DIRECTORY + "id" + stringId + ".key.pub");
+    }
+
+    private static byte[] readKeyFile(Path path) throws IOException {
+        try (FileInputStream fis = new FileInputStream(path.toFile())) {
+            return fis.readAllBytes();
+        }
+    }
+
+    private static PrivateKey readPrivateKey(String stringId) {
+        try {
+            PKCS8EncodedKeySpec privSpec = new PKCS8EncodedKeySpec(readKeyFile(getPrivatePath(stringId)));
+            return KeyFactory.getInstance("RSA").generatePrivate(privSpec);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new HDSSException(ErrorMessage.CannotLoadKey);
+        }
+    }
+
+    private static PublicKey readPublicKey(String stringId) {
+        try {
+            X509EncodedKeySpec pubSpec = new X509EncodedKeySpec(readKeyFile(getPublicPath(stringId)));
+            return KeyFactory.getInstance("RSA").generatePublic(pubSpec);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new HDSSException(ErrorMessage.CannotLoadKey);
+        }
+    }
+
+    /**
+     * Loads the public keys of every process in the given configurations
+     * and the private key of the process itself
+     *
+     * @param selfId id of the running process
+     * @param configs configurations of nodes and clients
+     */
+    public static void loadAll(String selfId, ProcessConfig[]... configs) {
+        for (ProcessConfig[] group : configs) {
+            for (ProcessConfig config : group) {
+                publicKeys.put(config.getId(), readPublicKey(config.getId()));
+            }
+        }
+        privateKeys.put(selfId, readPrivateKey(selfId));
+    }
+
+    /**
+     * Reads the keys of a process again from disk, replacing the cached ones
+     *
+     * @param stringId process whose keys changed
+     */
+    public static void reload(String stringId) {
+        publicKeys.put(stringId, readPublicKey(stringId));
+        if (Files.exists(getPrivatePath(stringId)))
+            privateKeys.put(stringId, readPrivateKey(stringId));
+        else
+            privateKeys.remove(stringId);
+    }
+
+    /**
+     * Registers keys that don't come from the KeyInfrastructure folder
+     * (e.g. generated in memory by the benchmarks)
+     *
+     * @param stringId owner of the keys
+     * @param keyPair public and private key of the process
+     */
+    public static void register(String stringId, KeyPair keyPair) {
+        publicKeys.put(stringId, keyPair.getPublic());
+        privateKeys.put(stringId, keyPair.getPrivate());
+    }
+
+    /**
+     * Gives the private key of a process, reading it if it was never loaded
+     *
+     * @param stringId owner of the key
+     * @return PrivateKey - cached private key
+     */
+    public static PrivateKey getPrivateKey(String stringId) {
+        return privateKeys.computeIfAbsent(stringId, KeyRing::readPrivateKey);
+    }
+
+    /**
+     * Gives the public key of a process, reading it if it was never loaded
+     *
+     * @param stringId owner of the key
+     * @return PublicKey - cached public key
+     */
+    public static PublicKey getPublicKey(String stringId) {
+        return publicKeys.computeIfAbsent(stringId, KeyRing::readPublicKey);
+    }
+
+    /**
+     * @return Signature - SHA256withRSA engine owned by the calling thread
+     */
+    public static Signature getSignatureEngine() {
+        return signatureEngine.get();
+    }
+
+    /**
+     * @return MessageDigest - SHA-256 digest owned by the calling thread
+     */
+    public static MessageDigest getDigestEngine() {
+        MessageDigest digest = digestEngine.get();
+        digest.reset();
+        return digest;
+    }
+}
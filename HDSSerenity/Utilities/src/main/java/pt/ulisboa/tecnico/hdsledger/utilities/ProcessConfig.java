@@ -15,6 +15,44 @@ public class ProcessConfig {
 
     private Behavior behavior = Behavior.NONE;
 
+    private SenderExecutor senderExecutor = SenderExecutor.FIXED;
+
+    private int senderThreads = 4;
+
+    private int verifierThreads = 4;
+
+    private int validationThreads = 4;
+
+    private Codec codec = Codec.BINARY;
+
+    private int pipelineWindow = 1;
+
+    private int retainedInstances = 10;
+
+    private String storageDirectory = "data";
+
+    private int snapshotInterval = 100;
+
+    private int mempoolCapacity = 10000;
+
+    private int maxBlockTransactions = 16;
+
+    private int maxBlockBytes = 8192;
+
+    private long maxBlockLatencyMillis = 200;
+
+    private ExecutionMode executionMode = ExecutionMode.THREADED;
+
+    private int eventLoopCapacity = 10000;
+
+    private long roundTimeoutMillis = 5000;
+
+    private long maxRoundTimeoutMillis = 60000;
+
+    private long ackDelayMillis = 20;
+
+    private Authentication authentication = Authentication.SIGNATURE;
+
     public enum Behavior {
         NONE("NONE"),
         FAULTY("FAULTY"),
@@ -36,6 +74,35 @@ public class ProcessConfig {
         }
     }
 
+    public enum SenderExecutor {
+        // Fixed pool of platform threads shared by every send
+        FIXED,
+        // One virtual thread per send (only available on Java 21+, falls back to FIXED)
+        VIRTUAL
+    }
+
+    public enum ExecutionMode {
+        // One thread per received message, instances are guarded by their own locks
+        THREADED,
+        // One consensus thread handles every message and timer event in order
+        EVENT_LOOP
+    }
+
+    public enum Authentication {
+        // Every message between nodes is signed with RSA
+        SIGNATURE,
+        // Nodes agree on a key once per peer and authenticate messages with an HMAC, only messages
+        // that end up in quorum certificates are still signed
+        SESSION
+    }
+
+    public enum Codec {
+        // Readable messages, for debugging
+        JSON,
+        // Compact length-prefixed messages
+        BINARY
+    }
+
     public boolean isLeader() {
         return isLeader;
     }
@@ -76,4 +143,80 @@ public class ProcessConfig {
         return behavior;
     }
 
+    public SenderExecutor getSenderExecutor() {
+        return senderExecutor;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    public int getVerifierThreads() {
+        return verifierThreads;
+    }
+
+    public int getValidationThreads() {
+        return validationThreads;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getPipelineWindow() {
+        return pipelineWindow;
+    }
+
+    public int getRetainedInstances() {
+        return retainedInstances;
+    }
+
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public int getMempoolCapacity() {
+        return mempoolCapacity;
+    }
+
+    public int getMaxBlockTransactions() {
+        return maxBlockTransactions;
+    }
+
+    public int getMaxBlockBytes() {
+        return maxBlockBytes;
+    }
+
+    public long getMaxBlockLatencyMillis() {
+        return maxBlockLatencyMillis;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public int getEventLoopCapacity() {
+        return eventLoopCapacity;
+    }
+
+    public long getRoundTimeoutMillis() {
+        return roundTimeoutMillis;
+    }
+
+    public long getMaxRoundTimeoutMillis() {
+        return maxRoundTimeoutMillis;
+    }
+
+    public long getAckDelayMillis() {
+        return ackDelayMillis;
+    }
+
+    public Authentication getAuthentication() {
+        return authentication;
+    }
+
 }
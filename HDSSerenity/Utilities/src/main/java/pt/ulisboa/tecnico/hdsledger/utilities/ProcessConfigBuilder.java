@@ -17,11 +17,19 @@ public class ProcessConfigBuilder {
         System.out.println(path);
         try (BufferedInputStream is = new BufferedInputStream(new FileInputStream(path))) {
             String input = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            Gson gson = new Gson();
-            return gson.fromJson(input, ProcessConfig[].class);
+            return fromJson(input);
         } catch (FileNotFoundException e) {
             throw new HDSSException(ErrorMessage.ConfigFileNotFound);
-        } catch (IOException | JsonSyntaxException e) {
+        } catch (IOException e) {
+            throw new HDSSException(ErrorMessage.ConfigFileFormat);
+        }
+    }
+
+    public ProcessConfig[] fromJson(String input) {
+        try {
+            Gson gson = new Gson();
+            return gson.fromJson(input, ProcessConfig[].class);
+        } catch (JsonSyntaxException e) {
             throw new HDSSException(ErrorMessage.ConfigFileFormat);
         }
     }
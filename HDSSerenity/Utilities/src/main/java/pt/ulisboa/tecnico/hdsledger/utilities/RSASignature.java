@@ -1,61 +1,15 @@
 package pt.ulisboa.tecnico.hdsledger.utilities;
 
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.util.Base64;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 // Utils to signature verification
-// Uses some code logic of the RSAKeyGenerator
+// Keys and engines are served by the KeyRing, no file is read here
 public class RSASignature {
 
-    private static String getPrivatePath(String stringId)
-    {
-        return "../KeyInfrastructure/id" + stringId + ".key";
-    }
-
-    private static String getPublicPath(String stringId)
-    {
-        return "../KeyInfrastructure/id" + stringId + ".key.pub";
-    }
-
-    private static PrivateKey getPrivateKey(String stringId) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
-        byte[] privEncoded;
-        String privKeyPath = getPrivatePath(stringId);
-        try (FileInputStream fis = new FileInputStream(privKeyPath)) {
-            privEncoded = new byte[fis.available()];
-            fis.read(privEncoded);
-        }
-
-        PKCS8EncodedKeySpec privSpec = new PKCS8EncodedKeySpec(privEncoded);
-        KeyFactory keyFacPriv = KeyFactory.getInstance("RSA");
-
-        return keyFacPriv.generatePrivate(privSpec);
-    }
-
-    private static PublicKey getPublicKey(String stringId) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
-        byte[] pubEncoded;
-        String pubKeyPath = getPublicPath(stringId);
-
-        try (FileInputStream fis = new FileInputStream(pubKeyPath)) {
-            pubEncoded = new byte[fis.available()];
-            fis.read(pubEncoded);
-        }
-
-        X509EncodedKeySpec pubSpec = new X509EncodedKeySpec(pubEncoded);
-        KeyFactory keyFacPub = KeyFactory.getInstance("RSA");
-
-        return keyFacPub.generatePublic(pubSpec);
-    }
+    /** Signatures already verified, shared by every verification in the process */
+    private static final SignatureCache VERIFIED = new SignatureCache(8192);
 
     /**
      * Creates a signature of the given data
@@ -66,13 +20,10 @@ public class RSASignature {
      * @throws Exception exception
      */
     public static byte[] sign(String signable, String stringId) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashedData = digest.digest(signable.getBytes(StandardCharsets.UTF_8));
-
-        PrivateKey privateKey = getPrivateKey(stringId);
+        byte[] hashedData = KeyRing.getDigestEngine().digest(signable.getBytes(StandardCharsets.UTF_8));
 
-        Signature privateSignature = Signature.getInstance("SHA256withRSA");
-        privateSignature.initSign(privateKey);
+        Signature privateSignature = KeyRing.getSignatureEngine();
+        privateSignature.initSign(KeyRing.getPrivateKey(stringId));
         privateSignature.update(hashedData);
 
         return privateSignature.sign();
@@ -80,6 +31,7 @@ public class RSASignature {
 
     /**
      * Verifies if the given signature was created by the author and correspond to the signable object
+     * Valid signatures are cached, verifying the same one again only costs a digest
      *
      * @param signable data which was originally signed
      * @param signature signature
@@ -88,16 +40,28 @@ public class RSASignature {
      * @throws Exception exception
      */
     public static boolean verifySign(String signable, byte[] signature, String stringId) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashedData = digest.digest(signable.getBytes(StandardCharsets.UTF_8));
+        if (signature == null)
+            return false;
 
-        PublicKey publicKey = getPublicKey(stringId);
+        byte[] hashedData = KeyRing.getDigestEngine().digest(signable.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer key = SignatureCache.keyOf(stringId, hashedData, signature);
+        if (VERIFIED.contains(key))
+            return true;
 
-        Signature publicSignature = Signature.getInstance("SHA256withRSA");
-        publicSignature.initVerify(publicKey);
+        Signature publicSignature = KeyRing.getSignatureEngine();
+        publicSignature.initVerify(KeyRing.getPublicKey(stringId));
         publicSignature.update(hashedData);
 
-        // returns boolean
-        return publicSignature.verify(signature);
+        boolean valid = publicSignature.verify(signature);
+        if (valid)
+            VERIFIED.add(key);
+        return valid;
+    }
+
+    /**
+     * @return SignatureCache - cache of the signatures already verified
+     */
+    public static SignatureCache getVerifiedCache() {
+        return VERIFIED;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers the signatures that were already verified, so a message is only verified once
+// (e.g. when it is received and later shows up again inside a justification)
+// Only valid signatures are kept, an entry binds the author, the digest of the data and the signature
+public class SignatureCache {
+
+    /** Maximum number of entries, the least recently used one is dropped first */
+    private final int capacity;
+    /** Verified (author, digest, signature) entries, in access order */
+    private final Map<ByteBuffer, Boolean> verified;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public SignatureCache(int capacity) {
+        this.capacity = capacity;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > SignatureCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param stringId author of the signature
+     * @param digest digest of the signed data
+     * @param signature signature
+     * @return ByteBuffer - key of the entry (compared by content)
+     */
+    public static ByteBuffer keyOf(String stringId, byte[] digest, byte[] signature) {
+        byte[] id = stringId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + id.length + digest.length + signature.length)
+                .putInt(id.length)
+                .put(id)
+                .put(digest)
+                .put(signature)
+                .flip();
+    }
+
+    public synchronized boolean contains(ByteBuffer key) {
+        boolean found = verified.get(key) != null;
+        (found ? hits : misses).incrementAndGet();
+        return found;
+    }
+
+    public synchronized void add(ByteBuffer key) {
+        verified.put(key, Boolean.TRUE);
+    }
+
+    public synchronized void clear() {
+        verified.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
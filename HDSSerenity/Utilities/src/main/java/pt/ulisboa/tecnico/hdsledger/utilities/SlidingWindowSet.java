@@ -0,0 +1,143 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Lock-free set of the sequence numbers received from (or acknowledged by) one peer
+// Every number up to the floor is in the set, numbers above it are kept in a ring of slots,
+// one per number of the window. A slot stores the number it holds instead of a single bit, so
+// slots never have to be cleared when the floor moves: a number of a previous turn of the ring
+// is always at or below the floor. Adding and looking up numbers does not allocate or lock
+public class SlidingWindowSet {
+
+    /** Default number of sequence numbers above the floor that can be kept */
+    public static final int DEFAULT_WINDOW = 4096;
+
+    /** Number of slots, a power of two */
+    private final int window;
+    /** Number of slots - 1 */
+    private final int mask;
+    /** Slot -> Sequence number it holds */
+    private final AtomicIntegerArray slots;
+    /** Every sequence number up to the floor is in the set, starts at -1 since numbers start at 0 */
+    private final AtomicInteger floor = new AtomicInteger(-1);
+
+    public SlidingWindowSet() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of sequence numbers above the floor that can be kept (rounded up to a power of two)
+     */
+    public SlidingWindowSet(int window) {
+        this.window = 1 << (32 - Integer.numberOfLeadingZeros(Math.max(64, window) - 1));
+        this.mask = this.window - 1;
+        this.slots = new AtomicIntegerArray(this.window);
+        // Every slot starts with a number below the floor, i.e. empty
+        for (int slot = 0; slot < this.window; slot++)
+            slots.set(slot, slot - this.window);
+    }
+
+    /**
+     * Adds a sequence number, moving the floor over every number that is now contiguous
+     *
+     * @param number sequence number
+     * @return boolean - false if the number was already in the set or is beyond the window
+     */
+    public boolean add(int number) {
+        if (number <= floor.get() || isBeyondWindow(number))
+            return false;
+
+        int slot = number & mask;
+        while (true) {
+            int current = slots.get(slot);
+            // Same number, or a number of a later turn, which means this one is at or below the floor
+            if (current >= number)
+                return false;
+            // Otherwise the slot holds a number of a previous turn, already below the floor
+            if (slots.compareAndSet(slot, current, number))
+                break;
+        }
+
+        advance();
+        return true;
+    }
+
+    /**
+     * @param number sequence number
+     * @return boolean - whether the number is in the set
+     */
+    public boolean contains(int number) {
+        // Slot first: it is only reused after the floor has passed the number
+        return slots.get(number & mask) == number || number <= floor.get();
+    }
+
+    /**
+     * Numbers beyond the window can't be added until the floor moves, the caller should treat them as not
+     * received yet. Since the floor only moves up, a number within the window stays within it
+     *
+     * @param number sequence number
+     * @return boolean - whether the number is too far above the floor to be kept
+     */
+    public boolean isBeyondWindow(int number) {
+        return (long) number > (long) floor.get() + window;
+    }
+
+    /**
+     * @return int - highest sequence number such that it and every number below it are in the set
+     */
+    public int getFloor() {
+        return floor.get();
+    }
+
+    /**
+     * Adds every sequence number up to the given one (a cumulative acknowledgement)
+     *
+     * @param number sequence number
+     */
+    public void addUpTo(int number) {
+        int current = floor.get();
+        while (number > current && !floor.compareAndSet(current, number))
+            current = floor.get();
+        advance();
+    }
+
+    /**
+     * Adds a sequence number that may be beyond the window, moving the floor so it fits
+     * Numbers left behind by the floor count as added, which only suits numbers that are never sent twice
+     *
+     * @param number sequence number
+     * @return boolean - false if the number was already in the set
+     */
+    public boolean addMovingWindow(int number) {
+        if (isBeyondWindow(number))
+            addUpTo(number - window);
+        return add(number);
+    }
+
+    /**
+     * @param from first sequence number of the bitmap
+     * @return long - bit i is set if number from + i is in the set
+     */
+    public long getBitmap(int from) {
+        long bitmap = 0;
+        for (int i = 0; i < Long.SIZE; i++) {
+            if (contains(from + i))
+                bitmap |= 1L << i;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Moves the floor while the number after it is in its slot, any thread that added a number may do it
+     */
+    private void advance() {
+        int current = floor.get();
+        while (slots.get((current + 1) & mask) == current + 1) {
+            if (floor.compareAndSet(current, current + 1))
+                current++;
+            else
+                current = floor.get();
+        }
+    }
+}
@@ -2,6 +2,7 @@
 
 import os
 import json
+import shutil
 import sys
 import signal
 
@@ -23,6 +24,7 @@ server_configs = [
     "big_instance",
     "ignore_client",
     "commit_quorum",
+    "stress",
 ]
 
 # Client node configuration file name
@@ -32,15 +34,19 @@ client_configs = [
 ]
 
 # Extract config file names from the arguments if provided
-# Usage: python3 puppet-master.py <server_config> <client_config>
-if len(sys.argv) == 3:
-    server_config = sys.argv[1]
-    client_config = sys.argv[2]
+# Usage: python3 puppet-master.py [--keep-data] <server_config> <client_config>
+# Nodes start from an empty block log unless --keep-data is given
+args = [arg for arg in sys.argv[1:] if arg != "--keep-data"]
+keep_data = len(args) != len(sys.argv) - 1
+
+if len(args) == 2:
+    server_config = args[0]
+    client_config = args[1]
     if server_config not in server_configs or client_config not in client_configs:
         server_config = server_configs[0]
         client_config = client_configs[1]
-elif len(sys.argv) == 2:
-    server_config = sys.argv[1]
+elif len(args) == 1:
+    server_config = args[0]
     client_config = client_configs[1]
     if server_config not in server_configs:
         server_config = server_configs[0]
@@ -80,6 +86,12 @@ with open(f"Service/src/main/resources/{server_config}") as s:
         os.chdir("..")
         print("\nGenerated and saved keys\n")
 
+# Wipe the storage of the nodes, so a scenario doesn't recover the ledger of a previous run
+if not keep_data:
+    with open(f"Service/src/main/resources/{server_config}") as f:
+        for key in json.load(f):
+            shutil.rmtree(os.path.join("Service", key.get("storageDirectory", "data"), key["id"]), ignore_errors=True)
+
 # Spawn blockchain nodes
 with open(f"Service/src/main/resources/{server_config}") as f:
     data = json.load(f)
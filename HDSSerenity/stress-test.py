@@ -0,0 +1,188 @@
+#!/usr/bin/env python
+
+import os
+import re
+import json
+import shutil
+import subprocess
+import sys
+import time
+
+
+# Stress test: two clients flood each other with transfers while the nodes run several consensus
+# instances at once. The run fails if a node logged a broken invariant (e.g. the balances no longer add up),
+# if the ledgers of the nodes disagree or if a balance doesn't follow from the ledger (exit code 1).
+# Transfers left once the nodes stop making progress are reported apart (exit code 2)
+# Usage: python3 stress-test.py [server_config] [transfers per client]
+server_config = sys.argv[1] if len(sys.argv) > 1 else "stress"
+transfers = int(sys.argv[2]) if len(sys.argv) > 2 else 100
+client_config = "multiple_clients"
+
+# Every client starts with 10, each transfer pays a fee of 0.001 to the author of its block
+INITIAL_BALANCE = 10
+FEE = 0.001
+CLIENTS = ["20", "21"]
+TIMEOUT_SECONDS = 600
+# No transfer completed for this long, the nodes stalled
+STALL_SECONDS = 120
+# Time the nodes have to answer the final balance requests
+BALANCE_SECONDS = 30
+LOG_DIR = "stress-logs"
+
+server_file = server_config + ".json"
+client_file = client_config + ".json"
+
+
+def fail(reason):
+    print(f"FAILED: {reason}")
+    sys.exit(1)
+
+
+# Compile classes
+if os.system("mvn -q install -DskipTests") != 0:
+    fail("build")
+os.system("javac KeyInfrastructure/*.java")
+
+# Generate keys for Nodes and Clients
+with open(f"Service/src/main/resources/{server_file}") as s:
+    with open(f"Client/src/main/resources/{client_file}") as c:
+        nodes = json.load(s)
+        clients = json.load(c)
+for key in clients + nodes:
+    privPath = f"KeyInfrastructure/id{key['id']}.key"
+    pubPath = f"KeyInfrastructure/id{key['id']}.key.pub"
+    if not (os.path.exists(privPath) and os.path.exists(pubPath)):
+        os.system(f"cd KeyInfrastructure; java RSAKeyGenerator w ./id{key['id']}.key ./id{key['id']}.key.pub")
+
+# Every run starts from an empty block log
+for key in nodes:
+    shutil.rmtree(os.path.join("Service", key.get("storageDirectory", "data"), key["id"]), ignore_errors=True)
+shutil.rmtree(LOG_DIR, ignore_errors=True)
+os.makedirs(LOG_DIR)
+
+processes = []
+
+
+# The ledgers and the client replies are printed to stdout (<name>.out), the logs go to stderr (<name>.log),
+# apart so a line of one never ends up in the middle of the other
+def spawn(directory, args, name, stdin=None):
+    process = subprocess.Popen(["mvn", "-q", "exec:java", f"-Dexec.args={args}"], cwd=directory,
+                               stdin=stdin, stdout=open(os.path.join(LOG_DIR, f"{name}.out"), "w"),
+                               stderr=open(os.path.join(LOG_DIR, f"{name}.log"), "w"), text=True)
+    processes.append(process)
+    return process
+
+
+def read_output(name, extension="out"):
+    with open(os.path.join(LOG_DIR, f"{name}.{extension}"), errors="replace") as f:
+        return re.sub(r"\x1b\[[0-9;]*m", "", f.read())
+
+
+def read_ledger(name):
+    """Last ledger printed by a node: one list of (sender, receiver, amount) per block"""
+    dumps = read_output(name).split("- Current Ledger:")
+    ledger = []
+    for line in dumps[-1].splitlines() if len(dumps) > 1 else []:
+        line = line.strip()
+        if line.startswith("Block:"):
+            ledger.append([])
+        elif line.startswith("Sender:") and ledger:
+            fields = line.split()
+            ledger[-1].append((fields[1], fields[3], float(fields[5])))
+        elif line and ledger:
+            break
+    return ledger
+
+
+try:
+    for key in nodes:
+        spawn("Service", f"{key['id']} {server_file} {client_file}", f"node{key['id']}")
+    time.sleep(8)
+
+    # Each client sends every transfer at once to the other one
+    for i, client_id in enumerate(CLIENTS):
+        destination = CLIENTS[(i + 1) % len(CLIENTS)]
+        client = spawn("Client", f"{client_id} {client_file} {server_file}", f"client{client_id}",
+                       stdin=subprocess.PIPE)
+        time.sleep(4)
+        client.stdin.write(f"stress {destination} {transfers}\n")
+        client.stdin.flush()
+
+    # Wait for every transfer, or until the nodes stop making progress
+    deadline = time.time() + TIMEOUT_SECONDS
+    done, last_progress = None, time.time()
+    while time.time() < deadline and time.time() - last_progress < STALL_SECONDS:
+        completed = [read_output(f"client{client_id}").count("Transfer Completed") for client_id in CLIENTS]
+        if completed != done:
+            done, last_progress = completed, time.time()
+        if all(count >= transfers for count in done):
+            break
+        time.sleep(2)
+
+    stalled = not all(count >= transfers for count in done)
+
+    # Balances as seen by the clients, once the nodes are quiet
+    def balances_of(client_id):
+        return re.findall(r"has a balance of ([0-9.]+)", read_output(f"client{client_id}"))
+
+    for i, client_id in enumerate(CLIENTS):
+        client = processes[len(nodes) + i]
+        client.stdin.write(f"balance {client_id}\n")
+        client.stdin.flush()
+    deadline = time.time() + BALANCE_SECONDS
+    while time.time() < deadline and not all(balances_of(client_id) for client_id in CLIENTS):
+        time.sleep(1)
+
+    # Stopped before reading the ledgers, so no node is still printing one
+    for process in processes:
+        process.terminate()
+    for process in processes:
+        process.wait()
+
+    # Nodes log a CRITICAL line when an invariant breaks, e.g. the balances no longer add up
+    for key in nodes:
+        log = read_output(f"node{key['id']}") + read_output(f"node{key['id']}", "log")
+        for problem in ["CRITICAL", "Event failed", "Exception"]:
+            if problem in log:
+                fail(f"node {key['id']} logged '{problem}', see {LOG_DIR}/node{key['id']}.*")
+
+    # Agreement: the ledger of a node is a prefix of the ledger of any node that decided more
+    ledgers = {key["id"]: read_ledger(f"node{key['id']}") for key in nodes}
+    longest = max(ledgers.values(), key=len)
+    for node_id, ledger in ledgers.items():
+        if ledger != longest[:len(ledger)]:
+            fail(f"node {node_id} has a different ledger than the others")
+
+    # Every balance follows from the decided blocks, of the node that answered (it may be behind)
+    def balance_of(client_id, ledger):
+        balance = INITIAL_BALANCE
+        for block in ledger:
+            for sender, receiver, amount in block:
+                if sender == client_id:
+                    balance -= amount + FEE
+                if receiver == client_id:
+                    balance += amount
+        return balance
+
+    for client_id in CLIENTS:
+        balances = balances_of(client_id)
+        # Nodes that stalled busy with retransmissions may not answer in time, there is nothing to compare
+        if not balances and stalled:
+            print(f"No balance for client {client_id}, the nodes did not answer")
+            continue
+        if not balances:
+            fail(f"no balance for client {client_id}")
+        expected = sorted({round(balance_of(client_id, ledger), 6) for ledger in ledgers.values()})
+        if not any(abs(float(balances[-1]) - balance) < 1e-6 for balance in expected):
+            fail(f"client {client_id} has a balance of {balances[-1]}, the ledgers give {expected}")
+
+    # Liveness, checked last: the invariants above hold even if the nodes stalled
+    if stalled:
+        print(f"STALLED: transfers completed {done}, expected {transfers} per client; "
+              f"no invariant broken over {len(longest)} blocks")
+        sys.exit(2)
+
+    print(f"PASSED: {transfers} transfers per client in {len(longest)} blocks, no invariant broken")
+finally:
+    for process in processes:
+        process.terminate()